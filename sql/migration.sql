@@ -0,0 +1,29 @@
+-- 用户标签关系表，由 user.tags 同步，建表后执行 once/UserTagBackfill 回填历史数据
+create table if not exists user_tag
+(
+    id         bigint auto_increment comment 'id' primary key,
+    userId     bigint                             not null comment '用户id',
+    tagId      bigint                             not null comment '标签id',
+    createTime datetime default CURRENT_TIMESTAMP null comment '创建时间',
+    unique key uniIdx_tagId_userId (tagId, userId),
+    key idx_userId (userId)
+) comment '用户标签关系表';
+
+-- 按标签名查 id、防止并发创建同名标签（有重复标签名时需要先清理）
+-- 标签表是逻辑删除，删掉的标签名还能再创建：只对未删除的行生效，已删除的行 nameFlag 为 null 不参与唯一约束
+alter table tag
+    add column nameFlag tinyint as (if(isDelete = 0, 1, null)) virtual comment '未删除时为 1，用于唯一索引',
+    add unique index uniIdx_tagName_nameFlag (tagName, nameFlag);
+
+-- 按 userId 游标翻页查询用户标签，换成 (userId, tagId) 联合索引
+alter table user_tag drop index idx_userId, add index idx_userId_tagId (userId, tagId);
+
+-- 队伍已加入人数，加入、退出时条件更新，不再 count user_team；加列后按关系表回填
+alter table team add column memberCount int default 0 not null comment '已加入的用户数' after maxNum;
+update team t set memberCount = (select count(*) from user_team ut where ut.teamId = t.id and ut.isDelete = 0);
+
+-- 同一个用户不能重复加入同一个队伍，并发加入时由唯一索引兜底（有重复关系时需要先清理）
+-- 关系表是逻辑删除，退出后还能再加入：只对未删除的行生效，已删除的行 joinFlag 为 null 不参与唯一约束
+alter table user_team
+    add column joinFlag tinyint as (if(isDelete = 0, 1, null)) virtual comment '未删除时为 1，用于唯一索引',
+    add unique index uniIdx_teamId_userId_joinFlag (teamId, userId, joinFlag);
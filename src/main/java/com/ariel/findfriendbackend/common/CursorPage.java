@@ -0,0 +1,39 @@
+package com.ariel.findfriendbackend.common;
+
+import lombok.Data;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 游标分页结果，下一页请求时把 nextCursor 作为 lastId 传回来
+ *
+ * @author Ariel
+ */
+@Data
+public class CursorPage<T> implements Serializable {
+
+    /**
+     * 当前页数据
+     */
+    private List<T> records = new ArrayList<>();
+
+    /**
+     * 下一页游标（当前页最后一条的 id），没有下一页时为 null
+     */
+    private Long nextCursor;
+
+    /**
+     * 是否还有下一页
+     */
+    private boolean hasMore;
+
+    public static <T> CursorPage<T> of(List<T> records, Long nextCursor, boolean hasMore) {
+        CursorPage<T> cursorPage = new CursorPage<>();
+        cursorPage.setRecords(records);
+        cursorPage.setNextCursor(hasMore ? nextCursor : null);
+        cursorPage.setHasMore(hasMore);
+        return cursorPage;
+    }
+}
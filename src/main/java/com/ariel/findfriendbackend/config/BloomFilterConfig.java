@@ -0,0 +1,30 @@
+package com.ariel.findfriendbackend.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * @author Ariel
+ * 配置用户、队伍 id 布隆过滤器的容量和误判率，只在 Redis 里第一次创建过滤器时生效
+ */
+@Configuration
+@ConfigurationProperties(prefix = "friend.bloom")
+@Data
+public class BloomFilterConfig {
+
+    /**
+     * 预计的用户数，实际数量超过后误判率会上升
+     */
+    private long userExpectedInsertions = 1000000;
+
+    /**
+     * 预计的队伍数
+     */
+    private long teamExpectedInsertions = 200000;
+
+    /**
+     * 期望的误判率
+     */
+    private double falseProbability = 0.01;
+}
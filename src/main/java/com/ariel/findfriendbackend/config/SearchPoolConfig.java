@@ -0,0 +1,50 @@
+package com.ariel.findfriendbackend.config;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+
+/**
+ * @author Ariel
+ * 配置搜索、匹配打分专用的 ForkJoinPool，和 parallelStream 用的公共线程池隔离
+ */
+@Configuration
+@ConfigurationProperties(prefix = "friend.search.pool")
+@Data
+public class SearchPoolConfig {
+
+    /**
+     * 并行度（工作线程数）
+     */
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * 每个分片打分的用户数，总数不超过一个分片时直接在请求线程里算
+     */
+    private int chunkSize = 20000;
+
+    /**
+     * 排队的任务超过这个数就不再提交，在请求线程里串行计算
+     */
+    private int maxQueuedSubmissions = 256;
+
+    @Bean(destroyMethod = "shutdown")
+    public ForkJoinPool searchForkJoinPool(MeterRegistry meterRegistry) {
+        ForkJoinPool.ForkJoinWorkerThreadFactory threadFactory = pool -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            thread.setName("friend-search-" + thread.getPoolIndex());
+            return thread;
+        };
+        ForkJoinPool forkJoinPool = new ForkJoinPool(Math.max(1, parallelism), threadFactory, null, false);
+        // executor.active / executor.queued / executor.running / executor.steals 等指标
+        new ExecutorServiceMetrics(forkJoinPool, "friendSearch", Tags.empty()).bindTo(meterRegistry);
+        return forkJoinPool;
+    }
+}
@@ -0,0 +1,35 @@
+package com.ariel.findfriendbackend.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * @author Ariel
+ * 配置排队加入队伍：按队伍 id 分区，每个分区一个线程按顺序批量处理
+ */
+@Configuration
+@ConfigurationProperties(prefix = "friend.team.join-queue")
+@Data
+public class TeamJoinQueueConfig {
+
+    /**
+     * 分区数（处理线程数）
+     */
+    private int partitions = 8;
+
+    /**
+     * 每个分区最多排队的请求数，排满后直接拒绝
+     */
+    private int capacity = 10000;
+
+    /**
+     * 一批最多处理的请求数
+     */
+    private int batchSize = 100;
+
+    /**
+     * 凭证和结果在 Redis 里保存的时间
+     */
+    private long ticketTtlSeconds = 600;
+}
@@ -0,0 +1,25 @@
+package com.ariel.findfriendbackend.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * @author Ariel
+ * 配置两级缓存里进程内一级缓存的默认容量和过期时间，创建缓存时可以单独指定
+ */
+@Configuration
+@ConfigurationProperties(prefix = "friend.cache")
+@Data
+public class TwoLevelCacheConfig {
+
+    /**
+     * 每个缓存最多保存的条数
+     */
+    private long maximumSize = 10000;
+
+    /**
+     * 写入后多久过期，一级缓存只兜住热点，过期时间要比 Redis 短
+     */
+    private long expireAfterWriteSeconds = 60;
+}
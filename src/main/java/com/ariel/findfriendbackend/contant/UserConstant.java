@@ -24,4 +24,40 @@ public interface UserConstant {
      */
     int ADMIN_ROLE = 1;
 
+    //  ------- 标签 --------
+
+    /**
+     * 每个用户最多的标签数
+     */
+    int MAX_USER_TAG_NUM = 20;
+
+    /**
+     * 标签名最长长度
+     */
+    int MAX_TAG_NAME_LENGTH = 20;
+
+    //  ------- 推荐 --------
+
+    /**
+     * 通用推荐分页缓存，参数：用户角色、页码、每页数量
+     */
+    String RECOMMEND_PAGE_KEY = "friend:user:recommend:%s:%s:%s";
+
+    /**
+     * 通用推荐分页缓存的基础过期时间和随机抖动范围（毫秒）
+     */
+    long RECOMMEND_PAGE_TTL_MILLIS = 300000;
+
+    long RECOMMEND_PAGE_TTL_JITTER_MILLIS = 60000;
+
+    /**
+     * 每个用户预先算好的推荐用户 id 列表
+     */
+    String RECOMMEND_LIST_KEY = "friend:user:recommend:list:%s";
+
+    /**
+     * 脱敏后的用户资料快照
+     */
+    String USER_PROFILE_KEY = "friend:user:profile:%s";
+
 }
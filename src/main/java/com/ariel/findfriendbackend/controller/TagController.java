@@ -0,0 +1,33 @@
+package com.ariel.findfriendbackend.controller;
+
+import com.ariel.findfriendbackend.common.BaseResponse;
+import com.ariel.findfriendbackend.common.ResultUtils;
+import com.ariel.findfriendbackend.service.TagService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.web.bind.annotation.*;
+
+import javax.annotation.Resource;
+import java.util.List;
+
+/**
+ * @author Ariel
+ */
+@RestController
+@RequestMapping("/tag")
+@CrossOrigin(origins = {"http://localhost:3000/"})
+@Slf4j
+public class TagController {
+
+    @Resource
+    private TagService tagService;
+
+    /**
+     * 标签名自动补全，只查内存里的前缀树，不访问数据库
+     * @param prefix
+     * @return
+     */
+    @GetMapping("/suggest")
+    public BaseResponse<List<String>> suggestTags(@RequestParam(required = false) String prefix) {
+        return ResultUtils.success(tagService.suggestTags(prefix));
+    }
+}
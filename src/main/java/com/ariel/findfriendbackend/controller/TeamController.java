@@ -9,6 +9,7 @@ import com.ariel.findfriendbackend.model.domain.Team;
 import com.ariel.findfriendbackend.model.domain.User;
 import com.ariel.findfriendbackend.model.domain.UserTeam;
 import com.ariel.findfriendbackend.model.request.*;
+import com.ariel.findfriendbackend.model.vo.TeamJoinTicketVo;
 import com.ariel.findfriendbackend.model.vo.TeamUserVo;
 import com.ariel.findfriendbackend.service.TeamService;
 import com.ariel.findfriendbackend.service.UserService;
@@ -100,6 +101,35 @@ public class TeamController {
        return ResultUtils.success(result);
     }
 
+    /**
+     * 排队加入队伍，适合热门队伍：立即返回凭证，再用 /join/ticket 查询结果
+     * @param teamJoinRequest
+     * @param request
+     * @return 凭证
+     */
+    @PostMapping("/join/async")
+    public BaseResponse<String> joinTeamAsync(@RequestBody TeamJoinRequest teamJoinRequest,HttpServletRequest request){
+        if(teamJoinRequest ==null){
+            throw new BusinessException(ErrorCode.PARAMS_ERROR);
+        }
+        User loginUser=userService.getLoginUser(request);
+        String ticket =teamService.joinTeamAsync(teamJoinRequest,loginUser);
+        return ResultUtils.success(ticket);
+    }
+
+    /**
+     * 查询排队加入队伍的结果
+     * @param ticket
+     * @param request
+     * @return
+     */
+    @GetMapping("/join/ticket")
+    public BaseResponse<TeamJoinTicketVo> getJoinTicket(String ticket,HttpServletRequest request){
+        User loginUser=userService.getLoginUser(request);
+        TeamJoinTicketVo ticketVo =teamService.getJoinTicket(ticket,loginUser);
+        return ResultUtils.success(ticketVo);
+    }
+
     @PostMapping("/quit")
     public BaseResponse<Boolean> quitTeam(@RequestBody TeamQuitRequest teamQuitRequest, HttpServletRequest request){
         if(teamQuitRequest ==null){
@@ -120,10 +150,7 @@ public class TeamController {
         if(id <= 0){
             throw new BusinessException(ErrorCode.PARAMS_ERROR);
         }
-        Team team= teamService.getById(id);
-        if(team==null){
-            throw new BusinessException(ErrorCode.NULL_ERROR,"获取队伍信息失败");
-        }
+        Team team= teamService.getTeamById(id);
         return ResultUtils.success(team);
     }
 
@@ -137,9 +164,15 @@ public class TeamController {
         if(teamQuery==null){
             throw new BusinessException(ErrorCode.PARAMS_ERROR);
         }
-        //todo 查询队伍可以未登录 加入队伍必须提示登录
+        //查询队伍可以未登录，未登录时不判断是否已加入
         boolean isAdmin=userService.isAdmin(request);
-        List<TeamUserVo> teamList =teamService.listTeams(teamQuery,isAdmin);
+        User loginUser=null;
+        try {
+            loginUser=userService.getLoginUser(request);
+        } catch (BusinessException e) {
+            // 未登录
+        }
+        List<TeamUserVo> teamList =teamService.listTeams(teamQuery,isAdmin,loginUser);
         return ResultUtils.success(teamList);
     }
     /**
@@ -174,7 +207,7 @@ public class TeamController {
         }
         User loginUser=userService.getLoginUser(request);
         teamQuery.setUserId(loginUser.getId());
-        List<TeamUserVo> teamList =teamService.listTeams(teamQuery,true);
+        List<TeamUserVo> teamList =teamService.listTeams(teamQuery,true,loginUser);
         return ResultUtils.success(teamList);
     }
 
@@ -198,7 +231,7 @@ public class TeamController {
                 .collect(Collectors.groupingBy(UserTeam::getTeamId));
         List<Long> idList= new ArrayList<>(listMap.keySet());
         teamQuery.setIdList(idList);
-        List<TeamUserVo> teamList =teamService.listTeams(teamQuery,true);
+        List<TeamUserVo> teamList =teamService.listTeams(teamQuery,true,loginUser);
         return ResultUtils.success(teamList);
     }
 }
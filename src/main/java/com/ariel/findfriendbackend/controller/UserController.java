@@ -1,10 +1,13 @@
 package com.ariel.findfriendbackend.controller;
 
 import com.ariel.findfriendbackend.common.BaseResponse;
+import com.ariel.findfriendbackend.common.CursorPage;
 import com.ariel.findfriendbackend.common.ErrorCode;
 import com.ariel.findfriendbackend.common.ResultUtils;
 import com.ariel.findfriendbackend.exception.BusinessException;
 import com.ariel.findfriendbackend.model.domain.User;
+import com.ariel.findfriendbackend.model.enums.TagMatchModeEnum;
+import com.ariel.findfriendbackend.model.enums.TagSearchModeEnum;
 import com.ariel.findfriendbackend.model.request.UserLoginRequest;
 import com.ariel.findfriendbackend.model.request.UserRegisterRequest;
 import com.ariel.findfriendbackend.model.vo.TagVo;
@@ -13,15 +16,12 @@ import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.StringUtils;
-import org.springframework.data.redis.core.RedisTemplate;
-import org.springframework.data.redis.core.ValueOperations;
 import org.springframework.util.CollectionUtils;
 import org.springframework.web.bind.annotation.*;
 
 import javax.annotation.Resource;
 import javax.servlet.http.HttpServletRequest;
 import java.util.List;
-import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 import static com.ariel.findfriendbackend.contant.UserConstant.USER_LOGIN_STATE;
@@ -40,9 +40,6 @@ public class UserController {
     @Resource
     private UserService userService;
 
-    @Resource
-    private RedisTemplate<String, Object> redisTemplate;
-
     @PostMapping("/register")
     public BaseResponse<Long> userRegister(@RequestBody UserRegisterRequest userRegisterRequest) {
         if (userRegisterRequest == null) {
@@ -110,13 +107,35 @@ public class UserController {
     }
 
     //@RequestParam注解用于将请求参数赋值给形参
+    //mode 选择查询方式，不传默认走内存索引；游标分页，下一页把返回的 nextCursor 作为 lastId 传回来
+    //matchMode 选择多个标签的匹配方式，不传默认要求拥有全部标签
     @GetMapping("/search/tags")
-    public BaseResponse<List<User>> searchUsersByTags(@RequestParam(required = false) List<String> tagNameList) {
-        if (CollectionUtils.isEmpty(tagNameList)) {
+    public BaseResponse<CursorPage<User>> searchUsersByTags(@RequestParam(required = false) List<String> tagNameList,
+                                                            Integer mode,
+                                                            Integer matchMode,
+                                                            @RequestParam(defaultValue = "0") long lastId,
+                                                            @RequestParam(defaultValue = "20") int pageSize) {
+        if (CollectionUtils.isEmpty(tagNameList) || lastId < 0) {
             throw new BusinessException(ErrorCode.PARAMS_ERROR);
         }
-        List<User> userList = userService.getUserByTags(tagNameList);
-        return ResultUtils.success(userList);
+        //任意匹配 / 加权匹配按分数排序，只返回前 pageSize 个，没有下一页
+        TagMatchModeEnum matchModeEnum = TagMatchModeEnum.getEnumByValue(matchMode);
+        if (TagMatchModeEnum.ANY.equals(matchModeEnum) || TagMatchModeEnum.WEIGHTED.equals(matchModeEnum)) {
+            List<User> userList = userService.getUserByTagsRanked(tagNameList, matchModeEnum, pageSize);
+            return ResultUtils.success(CursorPage.of(userList, null, false));
+        }
+        TagSearchModeEnum modeEnum = TagSearchModeEnum.getEnumByValue(mode);
+        CursorPage<User> userPage;
+        if (TagSearchModeEnum.REDIS.equals(modeEnum)) {
+            userPage = userService.getUserByTagsRedis(tagNameList, lastId, pageSize);
+        } else if (TagSearchModeEnum.SQL.equals(modeEnum)) {
+            userPage = userService.getUserByTagsSql(tagNameList, lastId, pageSize);
+        } else if (TagSearchModeEnum.FUZZY.equals(modeEnum)) {
+            userPage = userService.getUserByTagsFuzzy(tagNameList, lastId, pageSize);
+        } else {
+            userPage = userService.getUserByTags(tagNameList, lastId, pageSize);
+        }
+        return ResultUtils.success(userPage);
     }
 
     /**
@@ -129,24 +148,8 @@ public class UserController {
      */
     @GetMapping("/recommend")
     public BaseResponse<Page<User>> recommendUsers(long pageSize,long pageNum,HttpServletRequest request) {
-        //如果有缓存，就直接读缓存，否则读db
         User loginUser=userService.getLoginUser(request);
-        String redisKey =String.format("friend:user:recommend:%s",loginUser.getUserRole());
-        ValueOperations<String,Object> valueOperations=redisTemplate.opsForValue();
-        Page<User> userPage =(Page<User>) valueOperations.get(redisKey);
-        if(userPage!=null){
-            return ResultUtils.success(userPage);
-        }
-        QueryWrapper<User> queryWrapper = new QueryWrapper<>();
-        //分页,当前是第几条数据公式：(pageNum-1)*pageSize
-         userPage = userService.page(new Page<>(pageNum,pageSize),queryWrapper);
-        //写缓存,即使写失败了也可以通过读取数据库返回给页面，所以只需要捕获异常
-        try{
-            //这里设置一个统一的过期时间可能会出现缓存雪崩，记得解决一下
-            valueOperations.set(redisKey,userPage,30000,TimeUnit.MILLISECONDS);
-        } catch (Exception e) {
-            log.error("redis set key error");
-        }
+        Page<User> userPage = userService.recommendUsers(pageSize, pageNum, loginUser);
         return ResultUtils.success(userPage);
     }
 
@@ -177,4 +180,15 @@ public class UserController {
         return ResultUtils.success(tagVo);
     }
 
+    /**
+     * 匹配和当前用户标签最相似的用户
+     * @param num
+     * @param request
+     * @return
+     */
+    @GetMapping("/match")
+    public BaseResponse<List<User>> matchUsers(long num, HttpServletRequest request) {
+        User loginUser = userService.getLoginUser(request);
+        return ResultUtils.success(userService.matchUsers(num, loginUser));
+    }
 }
@@ -1,21 +1,39 @@
 package com.ariel.findfriendbackend.job;
 
+import com.ariel.findfriendbackend.manager.MinHashLshManager;
+import com.ariel.findfriendbackend.manager.TagIndexManager;
+import com.ariel.findfriendbackend.manager.UserMatchManager;
 import com.ariel.findfriendbackend.model.domain.User;
 import com.ariel.findfriendbackend.service.UserService;
+import com.ariel.findfriendbackend.utils.CacheUtils;
 import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.BatchOptions;
+import org.redisson.api.RBatch;
+import org.redisson.api.RListAsync;
 import org.redisson.api.RLock;
 import org.redisson.api.RedissonClient;
+import org.redisson.client.codec.LongCodec;
 import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.data.redis.core.ValueOperations;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
+import org.springframework.util.StopWatch;
 
 import javax.annotation.Resource;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static com.ariel.findfriendbackend.contant.UserConstant.RECOMMEND_LIST_KEY;
+import static com.ariel.findfriendbackend.contant.UserConstant.RECOMMEND_PAGE_KEY;
+import static com.ariel.findfriendbackend.contant.UserConstant.RECOMMEND_PAGE_TTL_JITTER_MILLIS;
+import static com.ariel.findfriendbackend.contant.UserConstant.RECOMMEND_PAGE_TTL_MILLIS;
 
 /**
  * @author Ariel
@@ -33,6 +51,30 @@ public class PreCacheJob {
     @Resource
     private RedissonClient redissonClient;
 
+    @Resource
+    private TagIndexManager tagIndexManager;
+
+    @Resource
+    private UserMatchManager userMatchManager;
+
+    @Resource
+    private MinHashLshManager minHashLshManager;
+
+    /**
+     * 每个用户预先算好的推荐用户数
+     */
+    private static final int RECOMMEND_LIST_SIZE = 200;
+
+    /**
+     * 每批写入 Redis 的用户数
+     */
+    private static final int RECOMMEND_BATCH_SIZE = 200;
+
+    /**
+     * 推荐列表的过期时间，比刷新周期长，批处理失败一次也不会断
+     */
+    private static final Duration RECOMMEND_LIST_TTL = Duration.ofDays(3);
+
     /**
      * 重点用户，只设置一个用户
      */
@@ -54,14 +96,21 @@ public class PreCacheJob {
             if(lock.tryLock(0,-1,TimeUnit.MILLISECONDS)){
                 System.out.println("getLock: "+Thread.currentThread().getId());
                 for(Long userId:mainUserList){
+                    User user = userService.getById(userId);
+                    if (user == null) {
+                        continue;
+                    }
                     QueryWrapper<User> queryWrapper = new QueryWrapper<>();
                     //分页,当前是第几条数据公式：(pageNum-1)*pageSize
                     Page<User> userPage = userService.page(new Page<>(1,20),queryWrapper);
-                    String redisKey =String.format("friend:user:recommend:%s",userId);
+                    userPage.setRecords(userPage.getRecords().stream().map(userService::getSafetyUser).collect(Collectors.toList()));
+                    //和推荐接口用同一个 key（用户角色 + 页码 + 每页数量）
+                    String redisKey =String.format(RECOMMEND_PAGE_KEY,user.getUserRole(),1,20);
                     ValueOperations<String,Object> valueOperations=redisTemplate.opsForValue();
                     //写缓存
                     try{
-                        valueOperations.set(redisKey,userPage,30000L, TimeUnit.MILLISECONDS);
+                        valueOperations.set(redisKey,userPage,
+                                CacheUtils.jitterTtlMillis(RECOMMEND_PAGE_TTL_MILLIS, RECOMMEND_PAGE_TTL_JITTER_MILLIS), TimeUnit.MILLISECONDS);
                     } catch (Exception e) {
                         log.error("redis set key error",e);
                     }
@@ -79,4 +128,63 @@ public class PreCacheJob {
             }
         }
     }
+
+    /**
+     * 每天凌晨给每个有标签的用户算好前 RECOMMEND_LIST_SIZE 个相似用户，存成 Redis 列表
+     * 推荐接口分页时只需要 LRANGE 这一页的 id，再批量取用户资料
+     */
+    @Scheduled(cron = "0 0 4 * * *")
+    public void doCacheRecommendList() {
+        RLock lock = redissonClient.getLock("friend:preCacheJob:recommendList:lock");
+        try {
+            if (!lock.tryLock(0, -1, TimeUnit.MILLISECONDS)) {
+                return;
+            }
+            if (!tagIndexManager.isReady() || !userMatchManager.isReady()) {
+                log.warn("tag index not ready, skip recommend list");
+                return;
+            }
+            StopWatch stopWatch = new StopWatch();
+            stopWatch.start();
+            // 同一个用户的删除 + 写入放在一个事务里，读的一方不会看到空列表
+            BatchOptions batchOptions = BatchOptions.defaults()
+                    .executionMode(BatchOptions.ExecutionMode.IN_MEMORY_ATOMIC);
+            RBatch batch = redissonClient.createBatch(batchOptions);
+            int userNum = 0;
+            for (Map.Entry<Long, int[]> entry : tagIndexManager.getUserTagMap().entrySet()) {
+                long userId = entry.getKey();
+                int[] tagIds = entry.getValue();
+                long[] recommendIds = minHashLshManager.isReady()
+                        ? userMatchManager.rerankUserIds(tagIds, minHashLshManager.getCandidateUserIds(tagIds),
+                        userId, RECOMMEND_LIST_SIZE)
+                        : userMatchManager.matchUserIds(tagIds, userId, RECOMMEND_LIST_SIZE);
+                RListAsync<Long> recommendList = batch.getList(String.format(RECOMMEND_LIST_KEY, userId),
+                        LongCodec.INSTANCE);
+                recommendList.deleteAsync();
+                if (recommendIds.length > 0) {
+                    List<Long> recommendIdList = new ArrayList<>(recommendIds.length);
+                    for (long recommendId : recommendIds) {
+                        recommendIdList.add(recommendId);
+                    }
+                    recommendList.addAllAsync(recommendIdList);
+                    recommendList.expireAsync(RECOMMEND_LIST_TTL);
+                }
+                if (++userNum % RECOMMEND_BATCH_SIZE == 0) {
+                    batch.execute();
+                    batch = redissonClient.createBatch(batchOptions);
+                }
+            }
+            if (userNum % RECOMMEND_BATCH_SIZE != 0) {
+                batch.execute();
+            }
+            stopWatch.stop();
+            log.info("recommend list cached, users={}, time={}ms", userNum, stopWatch.getTotalTimeMillis());
+        } catch (InterruptedException e) {
+            log.error("doCacheRecommendListError", e);
+        } finally {
+            if (lock.isHeldByCurrentThread()) {
+                lock.unlock();
+            }
+        }
+    }
 }
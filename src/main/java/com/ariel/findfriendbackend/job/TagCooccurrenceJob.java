@@ -0,0 +1,39 @@
+package com.ariel.findfriendbackend.job;
+
+import com.ariel.findfriendbackend.manager.TagCooccurrenceManager;
+import com.ariel.findfriendbackend.manager.TagIndexManager;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+
+/**
+ * 定时全量重建标签共现矩阵，校正增量维护时可能丢掉的修改
+ * @author Ariel
+ */
+@Component
+@Slf4j
+public class TagCooccurrenceJob {
+
+    @Resource
+    private TagIndexManager tagIndexManager;
+
+    @Resource
+    private TagCooccurrenceManager tagCooccurrenceManager;
+
+    /**
+     * 每小时执行一次，只读内存里的用户标签缓存，不查数据库
+     */
+    @Scheduled(cron = "0 30 * * * *")
+    public void rebuildTagCooccurrence() {
+        if (!tagIndexManager.isReady()) {
+            return;
+        }
+        try {
+            tagCooccurrenceManager.rebuild(tagIndexManager.getUserTagMap());
+        } catch (Exception e) {
+            log.error("rebuild tag cooccurrence error", e);
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package com.ariel.findfriendbackend.job;
+
+import com.ariel.findfriendbackend.manager.TagHierarchyManager;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+
+/**
+ * 定时检查 tag 表是否有变化，有变化时重建标签层级闭包
+ * @author Ariel
+ */
+@Component
+@Slf4j
+public class TagHierarchyJob {
+
+    @Resource
+    private TagHierarchyManager tagHierarchyManager;
+
+    /**
+     * 每分钟执行一次，tag 表没变化时只查一次标签数和最后修改时间
+     */
+    @Scheduled(fixedDelay = 60000, initialDelay = 60000)
+    public void refreshTagHierarchy() {
+        try {
+            tagHierarchyManager.refresh();
+        } catch (Exception e) {
+            log.error("refresh tag hierarchy error", e);
+        }
+    }
+}
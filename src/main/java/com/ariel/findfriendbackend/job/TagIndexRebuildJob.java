@@ -0,0 +1,53 @@
+package com.ariel.findfriendbackend.job;
+
+import com.ariel.findfriendbackend.manager.RedisTagIndexManager;
+import com.ariel.findfriendbackend.manager.TagPopularityManager;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+
+/**
+ * 定时全量重建 Redis 里的标签索引和标签热度，校正增量维护时可能丢掉的修改（Redis 写失败、节点在提交后挂掉等）
+ * @author Ariel
+ */
+@Component
+@Slf4j
+public class TagIndexRebuildJob {
+
+    @Resource
+    private RedisTagIndexManager redisTagIndexManager;
+
+    @Resource
+    private TagPopularityManager tagPopularityManager;
+
+    /**
+     * 每天凌晨执行，多个节点只有抢到锁的一个会重建
+     */
+    @Scheduled(cron = "0 0 3 * * *")
+    public void rebuildTagIndex() {
+        try {
+            redisTagIndexManager.rebuild();
+        } catch (Exception e) {
+            log.error("rebuild redis tag index error", e);
+        }
+        try {
+            tagPopularityManager.rebuild();
+        } catch (Exception e) {
+            log.error("rebuild tag popularity error", e);
+        }
+    }
+
+    /**
+     * 每 10 分钟检查一次标签热度计数，被清掉时重建，计数不存在期间增量修改会被跳过
+     */
+    @Scheduled(fixedDelay = 600000, initialDelay = 600000)
+    public void checkTagPopularity() {
+        try {
+            tagPopularityManager.rebuildIfMissing();
+        } catch (Exception e) {
+            log.error("check tag popularity error", e);
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package com.ariel.findfriendbackend.job;
+
+import com.ariel.findfriendbackend.service.TagService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+
+/**
+ * 定时重建标签名前缀树和 BK 树，带上新创建的标签和最新的使用人数
+ * @author Ariel
+ */
+@Component
+@Slf4j
+public class TagSuggestJob {
+
+    @Resource
+    private TagService tagService;
+
+    /**
+     * 每 10 分钟执行一次
+     */
+    @Scheduled(fixedDelay = 600000, initialDelay = 600000)
+    public void refreshTagNameIndex() {
+        try {
+            tagService.refreshTagTrie();
+            tagService.refreshTagBkTree();
+        } catch (Exception e) {
+            log.error("refresh tag name index error", e);
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package com.ariel.findfriendbackend.job;
+
+import com.ariel.findfriendbackend.manager.TagIndexManager;
+import com.ariel.findfriendbackend.manager.UserMatchManager;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+
+/**
+ * 有新用户或新标签放不进相似用户位图时，定时重建位图
+ * @author Ariel
+ */
+@Component
+@Slf4j
+public class UserMatchJob {
+
+    @Resource
+    private TagIndexManager tagIndexManager;
+
+    @Resource
+    private UserMatchManager userMatchManager;
+
+    /**
+     * 每分钟检查一次，没有变化时什么都不做
+     */
+    @Scheduled(fixedDelay = 60000, initialDelay = 60000)
+    public void rebuildUserMatch() {
+        if (!tagIndexManager.isReady() || !userMatchManager.isDirty()) {
+            return;
+        }
+        try {
+            userMatchManager.rebuild(tagIndexManager.getUserTagMap());
+        } catch (Exception e) {
+            log.error("rebuild user match error", e);
+        }
+    }
+}
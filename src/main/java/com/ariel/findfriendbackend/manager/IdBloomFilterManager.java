@@ -0,0 +1,211 @@
+package com.ariel.findfriendbackend.manager;
+
+import com.ariel.findfriendbackend.config.BloomFilterConfig;
+import com.ariel.findfriendbackend.mapper.TeamMapper;
+import com.ariel.findfriendbackend.mapper.UserMapper;
+import com.ariel.findfriendbackend.model.domain.Team;
+import com.ariel.findfriendbackend.model.domain.User;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RBloomFilter;
+import org.redisson.api.RedissonClient;
+import org.redisson.client.codec.LongCodec;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StopWatch;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * 用户、队伍 id 的布隆过滤器（Redisson RBloomFilter），防止用不存在的 id 反复穿透缓存打到数据库
+ * 过滤器说不存在就一定不存在，直接拒绝；说存在时可能误判，再走缓存和数据库
+ * 启动时把库里已有的 id 全部加一遍（重复添加没有影响），新增用户、队伍时加入；加载完成前不拦截
+ * 指标：friend.bloom.requests（rejected / passed / false_positive），friend.bloom.false.positive.rate（按当前元素数估算）
+ * @author Ariel
+ */
+@Component
+@Slf4j
+public class IdBloomFilterManager {
+
+    private static final String USER_FILTER_KEY = "friend:bloom:user";
+
+    private static final String TEAM_FILTER_KEY = "friend:bloom:team";
+
+    /**
+     * 启动加载时每批查询、写入的 id 数
+     */
+    private static final int LOAD_BATCH_SIZE = 10000;
+
+    @Resource
+    private RedissonClient redissonClient;
+
+    @Resource
+    private UserMapper userMapper;
+
+    @Resource
+    private TeamMapper teamMapper;
+
+    @Resource
+    private BloomFilterConfig bloomFilterConfig;
+
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    private IdFilter userFilter;
+
+    private IdFilter teamFilter;
+
+    @PostConstruct
+    public void init() {
+        userFilter = new IdFilter("user", redissonClient.getBloomFilter(USER_FILTER_KEY, LongCodec.INSTANCE),
+                bloomFilterConfig.getUserExpectedInsertions());
+        teamFilter = new IdFilter("team", redissonClient.getBloomFilter(TEAM_FILTER_KEY, LongCodec.INSTANCE),
+                bloomFilterConfig.getTeamExpectedInsertions());
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void load() {
+        try {
+            load(userFilter, userMapper, User::getId);
+            load(teamFilter, teamMapper, Team::getId);
+        } catch (Exception e) {
+            log.error("load id bloom filter error", e);
+        }
+    }
+
+    /**
+     * 用户 id 可能存在时返回 true，一定不存在时返回 false
+     * @param userId
+     * @return
+     */
+    public boolean mightContainUser(long userId) {
+        return userFilter.mightContain(userId);
+    }
+
+    public boolean mightContainTeam(long teamId) {
+        return teamFilter.mightContain(teamId);
+    }
+
+    public void addUser(long userId) {
+        userFilter.add(userId);
+    }
+
+    public void addTeam(long teamId) {
+        teamFilter.add(teamId);
+    }
+
+    /**
+     * 过滤器放行了但数据库里没有，记一次误判
+     */
+    public void recordUserFalsePositive() {
+        userFilter.falsePositiveCounter.increment();
+    }
+
+    public void recordTeamFalsePositive() {
+        teamFilter.falsePositiveCounter.increment();
+    }
+
+    private <T> void load(IdFilter idFilter, BaseMapper<T> mapper, Function<T, Long> idGetter) {
+        StopWatch stopWatch = new StopWatch();
+        stopWatch.start();
+        long lastId = 0;
+        long total = 0;
+        while (true) {
+            QueryWrapper<T> queryWrapper = new QueryWrapper<>();
+            queryWrapper.select("id")
+                    .gt("id", lastId)
+                    .orderByAsc("id")
+                    .last("limit " + LOAD_BATCH_SIZE);
+            List<T> rows = mapper.selectList(queryWrapper);
+            if (rows.isEmpty()) {
+                break;
+            }
+            List<Long> ids = new ArrayList<>(rows.size());
+            for (T row : rows) {
+                ids.add(idGetter.apply(row));
+            }
+            idFilter.filter.add(ids);
+            total += ids.size();
+            lastId = ids.get(ids.size() - 1);
+        }
+        idFilter.ready = true;
+        stopWatch.stop();
+        log.info("{} id bloom filter loaded, ids={}, time={}ms", idFilter.name, total, stopWatch.getTotalTimeMillis());
+    }
+
+    /**
+     * 一个布隆过滤器和它的指标
+     */
+    private class IdFilter {
+
+        private final String name;
+
+        private final RBloomFilter<Long> filter;
+
+        private final Counter rejectedCounter;
+
+        private final Counter passedCounter;
+
+        private final Counter falsePositiveCounter;
+
+        private volatile boolean ready = false;
+
+        IdFilter(String name, RBloomFilter<Long> filter, long expectedInsertions) {
+            this.name = name;
+            this.filter = filter;
+            // 已经存在时不会覆盖，容量和误判率以第一次创建时为准
+            filter.tryInit(expectedInsertions, bloomFilterConfig.getFalseProbability());
+            this.rejectedCounter = requestCounter(name, "rejected");
+            this.passedCounter = requestCounter(name, "passed");
+            this.falsePositiveCounter = requestCounter(name, "false_positive");
+            // (1 - e^(-kn/m))^k，m、k 创建后不变，n 每次采集时从 Redis 取
+            long size = filter.getSize();
+            int hashIterations = filter.getHashIterations();
+            Gauge.builder("friend.bloom.false.positive.rate", filter, bloomFilter ->
+                            Math.pow(1 - Math.exp(-(double) hashIterations * bloomFilter.count() / size), hashIterations))
+                    .tag("filter", name)
+                    .description("按当前元素数估算的布隆过滤器误判率")
+                    .register(meterRegistry);
+        }
+
+        boolean mightContain(long id) {
+            if (!ready) {
+                return true;
+            }
+            boolean contains;
+            try {
+                contains = filter.contains(id);
+            } catch (Exception e) {
+                // Redis 出问题时放行，不影响正常查询
+                log.error("bloom filter contains error, filter={}", name, e);
+                return true;
+            }
+            (contains ? passedCounter : rejectedCounter).increment();
+            return contains;
+        }
+
+        void add(long id) {
+            try {
+                filter.add(id);
+            } catch (Exception e) {
+                log.error("bloom filter add error, filter={}, id={}", name, id, e);
+            }
+        }
+
+        private Counter requestCounter(String filterName, String result) {
+            return Counter.builder("friend.bloom.requests")
+                    .tag("filter", filterName).tag("result", result)
+                    .description("按 id 查询前布隆过滤器的判断结果")
+                    .register(meterRegistry);
+        }
+    }
+}
@@ -0,0 +1,246 @@
+package com.ariel.findfriendbackend.manager;
+
+import com.ariel.findfriendbackend.utils.LongArrayList;
+import com.ariel.findfriendbackend.utils.PostingListUtils;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StopWatch;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 相似用户的近似召回：每个用户的标签 id 集合算出 MinHash 签名，签名切成若干段（band），每段哈希到一个桶里
+ * Jaccard 相似度高的两个用户至少有一段完全相同的概率很高，匹配时只取查询用户所在的几个桶作为候选，再精确打分
+ * 签名不常驻内存，用户改标签时用旧标签重新算出旧签名，从旧桶里移除
+ * @author Ariel
+ */
+@Component
+@Slf4j
+public class MinHashLshManager {
+
+    /**
+     * 段数 * 每段行数 = 签名长度；两个用户进同一个桶的相似度阈值约为 (1 / BAND_NUM) ^ (1 / ROWS_PER_BAND) = 0.25
+     */
+    private static final int BAND_NUM = 16;
+
+    private static final int ROWS_PER_BAND = 2;
+
+    private static final int HASH_NUM = BAND_NUM * ROWS_PER_BAND;
+
+    /**
+     * 一次匹配最多取的候选数，热门标签组合的桶很大，从小桶开始取
+     */
+    private static final int MAX_CANDIDATE_NUM = 5000;
+
+    private final long[] hashSeeds = new long[HASH_NUM];
+
+    /**
+     * 桶 -> 升序用户 id，数组写时复制，读的时候不需要加锁
+     */
+    private volatile Map<Long, long[]> bucketMap = new ConcurrentHashMap<>();
+
+    /**
+     * 重建期间发生的增量修改，重建完成后回放
+     */
+    private List<UserTagChange> pendingChanges;
+
+    private volatile boolean ready = false;
+
+    public MinHashLshManager() {
+        // 固定种子，所有节点、每次重启算出的签名都一样
+        Random random = new Random(20240424L);
+        for (int i = 0; i < HASH_NUM; i++) {
+            hashSeeds[i] = random.nextLong() | 1L;
+        }
+    }
+
+    /**
+     * 用内存索引里缓存的用户标签全量重建桶
+     * @param userTagMap 用户 id -> 升序标签 id 数组
+     */
+    public void rebuild(Map<Long, int[]> userTagMap) {
+        StopWatch stopWatch = new StopWatch();
+        stopWatch.start();
+        synchronized (this) {
+            pendingChanges = new ArrayList<>();
+        }
+        Map<Long, LongArrayList> building = new HashMap<>();
+        long[] bucketKeys = new long[BAND_NUM];
+        // 按 id 升序加入，每个桶直接追加就是有序的
+        long[] userIds = new long[userTagMap.size()];
+        int userNum = 0;
+        for (Long userId : userTagMap.keySet()) {
+            if (userNum == userIds.length) {
+                userIds = Arrays.copyOf(userIds, userNum * 2 + 1);
+            }
+            userIds[userNum++] = userId;
+        }
+        Arrays.sort(userIds, 0, userNum);
+        for (int i = 0; i < userNum; i++) {
+            int[] tagIds = userTagMap.get(userIds[i]);
+            if (tagIds == null || !computeBucketKeys(tagIds, bucketKeys)) {
+                continue;
+            }
+            for (long bucketKey : bucketKeys) {
+                building.computeIfAbsent(bucketKey, k -> new LongArrayList()).add(userIds[i]);
+            }
+        }
+        Map<Long, long[]> newBucketMap = new ConcurrentHashMap<>(building.size() * 2);
+        building.forEach((bucketKey, bucketUserIds) -> newBucketMap.put(bucketKey, bucketUserIds.toArray()));
+        synchronized (this) {
+            for (UserTagChange change : pendingChanges) {
+                applyChange(newBucketMap, change.userId, change.oldTagIds, change.newTagIds);
+            }
+            pendingChanges = null;
+            bucketMap = newBucketMap;
+            ready = true;
+        }
+        stopWatch.stop();
+        log.info("minhash lsh built, users={}, buckets={}, time={}ms", userNum, newBucketMap.size(),
+                stopWatch.getTotalTimeMillis());
+    }
+
+    /**
+     * 用户标签变化时从旧签名的桶里移除，加入新签名的桶
+     * @param userId
+     * @param oldTagIds
+     * @param newTagIds
+     */
+    public synchronized void updateUserTags(long userId, int[] oldTagIds, int[] newTagIds) {
+        applyChange(bucketMap, userId, oldTagIds, newTagIds);
+        if (pendingChanges != null) {
+            pendingChanges.add(new UserTagChange(userId, oldTagIds, newTagIds));
+        }
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * 取和 tagIds 至少有一段签名相同的用户作为候选，最多 MAX_CANDIDATE_NUM 个
+     * @param tagIds 升序标签 id
+     * @return 升序用户 id
+     */
+    public long[] getCandidateUserIds(int[] tagIds) {
+        long[] bucketKeys = new long[BAND_NUM];
+        if (!computeBucketKeys(tagIds, bucketKeys)) {
+            return PostingListUtils.EMPTY;
+        }
+        Map<Long, long[]> currentBucketMap = bucketMap;
+        List<long[]> buckets = new ArrayList<>(BAND_NUM);
+        for (long bucketKey : bucketKeys) {
+            long[] bucket = currentBucketMap.get(bucketKey);
+            if (bucket != null) {
+                buckets.add(bucket);
+            }
+        }
+        // 小桶里的用户和查询用户更像（同一段签名的人少），先取小桶
+        buckets.sort(Comparator.comparingInt(bucket -> bucket.length));
+        long[] candidateIds = PostingListUtils.EMPTY;
+        for (long[] bucket : buckets) {
+            int remaining = MAX_CANDIDATE_NUM - candidateIds.length;
+            if (remaining <= 0) {
+                break;
+            }
+            // 桶比剩下的名额大时（很常见的标签组合）只均匀取一部分，不会超过候选数上限
+            candidateIds = PostingListUtils.union(candidateIds, sample(bucket, remaining));
+        }
+        return candidateIds;
+    }
+
+    /**
+     * 从升序的桶里等间隔取 limit 个，结果仍然升序
+     * @param bucket
+     * @param limit
+     * @return
+     */
+    private static long[] sample(long[] bucket, int limit) {
+        if (bucket.length <= limit) {
+            return bucket;
+        }
+        long[] sampled = new long[limit];
+        for (int i = 0; i < limit; i++) {
+            sampled[i] = bucket[(int) ((long) i * bucket.length / limit)];
+        }
+        return sampled;
+    }
+
+    private void applyChange(Map<Long, long[]> targetBucketMap, long userId, int[] oldTagIds, int[] newTagIds) {
+        long[] oldBucketKeys = new long[BAND_NUM];
+        long[] newBucketKeys = new long[BAND_NUM];
+        boolean hasOld = computeBucketKeys(oldTagIds, oldBucketKeys);
+        boolean hasNew = computeBucketKeys(newTagIds, newBucketKeys);
+        for (int band = 0; band < BAND_NUM; band++) {
+            if (hasOld && hasNew && oldBucketKeys[band] == newBucketKeys[band]) {
+                continue;
+            }
+            if (hasOld) {
+                long[] bucket = targetBucketMap.get(oldBucketKeys[band]);
+                if (bucket != null) {
+                    long[] newBucket = PostingListUtils.remove(bucket, userId);
+                    if (newBucket.length == 0) {
+                        targetBucketMap.remove(oldBucketKeys[band]);
+                    } else {
+                        targetBucketMap.put(oldBucketKeys[band], newBucket);
+                    }
+                }
+            }
+            if (hasNew) {
+                long[] bucket = targetBucketMap.getOrDefault(newBucketKeys[band], PostingListUtils.EMPTY);
+                targetBucketMap.put(newBucketKeys[band], PostingListUtils.insert(bucket, userId));
+            }
+        }
+    }
+
+    /**
+     * 算出每一段签名对应的桶，没有标签时返回 false
+     * @param tagIds
+     * @param bucketKeys 输出，长度为 BAND_NUM
+     * @return
+     */
+    private boolean computeBucketKeys(int[] tagIds, long[] bucketKeys) {
+        if (tagIds.length == 0) {
+            return false;
+        }
+        for (int band = 0; band < BAND_NUM; band++) {
+            long bucketKey = band;
+            for (int row = 0; row < ROWS_PER_BAND; row++) {
+                long seed = hashSeeds[band * ROWS_PER_BAND + row];
+                long minHash = Long.MAX_VALUE;
+                for (int tagId : tagIds) {
+                    minHash = Math.min(minHash, mix((tagId + 1) * seed));
+                }
+                bucketKey = bucketKey * 0x9E3779B97F4A7C15L + minHash;
+            }
+            bucketKeys[band] = mix(bucketKey);
+        }
+        return true;
+    }
+
+    private static long mix(long value) {
+        value ^= value >>> 33;
+        value *= 0xFF51AFD7ED558CCDL;
+        value ^= value >>> 33;
+        return value;
+    }
+
+    /**
+     * 一次用户标签修改
+     */
+    private static class UserTagChange {
+
+        private final long userId;
+
+        private final int[] oldTagIds;
+
+        private final int[] newTagIds;
+
+        UserTagChange(long userId, int[] oldTagIds, int[] newTagIds) {
+            this.userId = userId;
+            this.oldTagIds = oldTagIds;
+            this.newTagIds = newTagIds;
+        }
+    }
+}
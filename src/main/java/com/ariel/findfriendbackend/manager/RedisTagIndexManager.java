@@ -0,0 +1,461 @@
+package com.ariel.findfriendbackend.manager;
+
+import com.ariel.findfriendbackend.mapper.UserMapper;
+import com.ariel.findfriendbackend.model.domain.User;
+import com.ariel.findfriendbackend.utils.LongArrayList;
+import com.ariel.findfriendbackend.utils.PostingListUtils;
+import com.ariel.findfriendbackend.utils.TagUtils;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.*;
+import org.redisson.client.codec.LongCodec;
+import org.redisson.client.codec.StringCodec;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.util.DigestUtils;
+import org.springframework.util.StopWatch;
+
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Redis 标签索引：每个标签一个 set，成员是用户 id
+ * 多个节点共用一份索引，不会像 JVM 内的索引那样在别的节点修改标签后过期
+ * 索引按版本存放（friend:tagIndex:{版本}:tag:{标签名}），全量重建时写到新版本，建完后再把当前版本切过去，
+ * 读的一方只读已经建完的版本，不会读到建了一半的索引；定时重建一次，修正增量维护时丢掉的修改
+ * @author Ariel
+ */
+@Component
+@Slf4j
+public class RedisTagIndexManager {
+
+    private static final String KEY_PREFIX = "friend:tagIndex:";
+
+    /**
+     * 当前可读的版本，不存在说明还没有建好过
+     */
+    private static final String VERSION_KEY = KEY_PREFIX + "version";
+
+    /**
+     * 正在重建的版本，重建期间的增量修改同时写到这个版本
+     */
+    private static final String BUILDING_KEY = KEY_PREFIX + "building";
+
+    private static final String VERSION_SEQ_KEY = KEY_PREFIX + "versionSeq";
+
+    private static final String BUILD_LOCK_KEY = KEY_PREFIX + "build:lock";
+
+    private static final String TEMP_KEY_PREFIX = KEY_PREFIX + "tmp:";
+
+    /**
+     * 重建标记的过期时间，重建的节点挂掉后不会一直双写
+     */
+    private static final long BUILDING_TTL_HOURS = 1;
+
+    /**
+     * 切换版本后旧版本保留的时间，正在读旧版本的请求可以读完
+     */
+    private static final long OLD_VERSION_TTL_SECONDS = 300;
+
+    /**
+     * 最小的 set 不超过这个数量时直接 SINTER，否则先 SINTERSTORE 到临时 key 再 SSCAN 分批读
+     */
+    private static final int DIRECT_INTERSECT_THRESHOLD = 10000;
+
+    private static final int SCAN_BATCH_SIZE = 1000;
+
+    /**
+     * 查询结果缓存的过期时间
+     */
+    private static final long RESULT_TTL_SECONDS = 60;
+
+    private static final int BUILD_BATCH_SIZE = 1000;
+
+    @Resource
+    private RedissonClient redissonClient;
+
+    @Resource
+    private UserMapper userMapper;
+
+    /**
+     * 启动时如果 Redis 里还没有建好的索引，抢到锁的节点负责构建
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void init() {
+        try {
+            if (getCurrentVersion() != null) {
+                return;
+            }
+            rebuild();
+        } catch (Exception e) {
+            log.error("build redis tag index error", e);
+        }
+    }
+
+    /**
+     * 全量重建到一个新版本：按 id 游标分批读取用户标签，用 pipeline 批量 SADD，建完后切换当前版本
+     * 别的节点正在重建时直接返回，读的一方继续用旧版本
+     */
+    public void rebuild() {
+        RLock lock = redissonClient.getLock(BUILD_LOCK_KEY);
+        if (!lock.tryLock()) {
+            return;
+        }
+        try {
+            StopWatch stopWatch = new StopWatch();
+            stopWatch.start();
+            long version = redissonClient.getAtomicLong(VERSION_SEQ_KEY).incrementAndGet();
+            // 拿到锁说明之前没建完的版本都已经放弃了，它们的 key 也设置过期
+            Long currentVersion = getCurrentVersion();
+            for (long abandoned = currentVersion == null ? 1 : currentVersion + 1; abandoned < version; abandoned++) {
+                expireVersion(abandoned);
+            }
+            RBucket<String> buildingBucket = redissonClient.getBucket(BUILDING_KEY, StringCodec.INSTANCE);
+            buildingBucket.set(String.valueOf(version), BUILDING_TTL_HOURS, TimeUnit.HOURS);
+            long lastId = 0;
+            while (true) {
+                QueryWrapper<User> queryWrapper = new QueryWrapper<>();
+                queryWrapper.select("id", "tags")
+                        .gt("id", lastId)
+                        .isNotNull("tags")
+                        .orderByAsc("id")
+                        .last("limit " + BUILD_BATCH_SIZE);
+                List<User> userList = userMapper.selectList(queryWrapper);
+                if (userList.isEmpty()) {
+                    break;
+                }
+                RBatch batch = redissonClient.createBatch();
+                Set<String> tagSet = new HashSet<>();
+                for (User user : userList) {
+                    for (String tag : TagUtils.parseTags(user.getTags())) {
+                        batch.<Long>getSet(tagKey(version, tag), LongCodec.INSTANCE).addAsync(user.getId());
+                        tagSet.add(tag);
+                    }
+                }
+                if (!tagSet.isEmpty()) {
+                    batch.<String>getSet(tagsKey(version), StringCodec.INSTANCE).addAllAsync(tagSet);
+                }
+                batch.execute();
+                lastId = userList.get(userList.size() - 1).getId();
+            }
+            repairRemoved(version);
+            String oldVersion = redissonClient.<String>getBucket(VERSION_KEY, StringCodec.INSTANCE)
+                    .getAndSet(String.valueOf(version));
+            buildingBucket.delete();
+            if (oldVersion != null) {
+                expireVersion(Long.parseLong(oldVersion));
+            }
+            stopWatch.stop();
+            log.info("redis tag index built, version={}, time={}ms", version, stopWatch.getTotalTimeMillis());
+        } finally {
+            if (lock.isHeldByCurrentThread()) {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * 重建时先读到旧标签、再 SADD 的话，会把期间已经 SREM 掉的关系又加回去
+     * 重建期间去掉的关系都记下来了，建完后按数据库里的最新标签再检查一遍
+     * @param version
+     */
+    private void repairRemoved(long version) {
+        RSet<String> removedSet = redissonClient.getSet(removedKey(version), StringCodec.INSTANCE);
+        Map<Long, Set<String>> removedTagMap = new HashMap<>();
+        for (String member : removedSet.readAll()) {
+            int index = member.indexOf(':');
+            removedTagMap.computeIfAbsent(Long.parseLong(member.substring(0, index)), k -> new HashSet<>())
+                    .add(member.substring(index + 1));
+        }
+        if (removedTagMap.isEmpty()) {
+            return;
+        }
+        Map<Long, Set<String>> currentTagMap = new HashMap<>(removedTagMap.size() * 2);
+        QueryWrapper<User> queryWrapper = new QueryWrapper<>();
+        queryWrapper.select("id", "tags").in("id", removedTagMap.keySet());
+        for (User user : userMapper.selectList(queryWrapper)) {
+            currentTagMap.put(user.getId(), TagUtils.parseTags(user.getTags()));
+        }
+        RBatch batch = redissonClient.createBatch();
+        for (Map.Entry<Long, Set<String>> entry : removedTagMap.entrySet()) {
+            Set<String> currentTags = currentTagMap.getOrDefault(entry.getKey(), Collections.emptySet());
+            for (String tag : entry.getValue()) {
+                if (!currentTags.contains(tag)) {
+                    batch.<Long>getSet(tagKey(version, tag), LongCodec.INSTANCE).removeAsync(entry.getKey());
+                }
+            }
+        }
+        batch.getSet(removedKey(version), StringCodec.INSTANCE).deleteAsync();
+        batch.execute();
+        log.info("redis tag index repaired, users={}", removedTagMap.size());
+    }
+
+    /**
+     * 旧版本的所有 key 设置过期时间，不立即删除
+     * @param version
+     */
+    private void expireVersion(long version) {
+        RSet<String> tagsSet = redissonClient.getSet(tagsKey(version), StringCodec.INSTANCE);
+        Iterator<String> iterator = tagsSet.iterator(SCAN_BATCH_SIZE);
+        RBatch batch = redissonClient.createBatch();
+        int num = 0;
+        while (iterator.hasNext()) {
+            batch.getSet(tagKey(version, iterator.next()), LongCodec.INSTANCE)
+                    .expireAsync(OLD_VERSION_TTL_SECONDS, TimeUnit.SECONDS);
+            if (++num % BUILD_BATCH_SIZE == 0) {
+                batch.execute();
+                batch = redissonClient.createBatch();
+            }
+        }
+        batch.getSet(tagsKey(version), StringCodec.INSTANCE).expireAsync(OLD_VERSION_TTL_SECONDS, TimeUnit.SECONDS);
+        batch.getSet(removedKey(version), StringCodec.INSTANCE).deleteAsync();
+        batch.execute();
+    }
+
+    /**
+     * 用户标签变化时，SREM 去掉的标签、SADD 新增的标签，一次 pipeline 发出
+     * 正在重建时同时写到重建中的版本，并记下去掉的关系，建完后检查
+     * 需要在数据库事务提交后调用
+     * @param userId
+     * @param oldTags
+     * @param newTags
+     */
+    public void updateUserTags(long userId, Set<String> oldTags, Set<String> newTags) {
+        List<String> removedTags = new ArrayList<>();
+        for (String tag : oldTags) {
+            if (!newTags.contains(tag)) {
+                removedTags.add(tag);
+            }
+        }
+        List<String> addedTags = new ArrayList<>();
+        for (String tag : newTags) {
+            if (!oldTags.contains(tag)) {
+                addedTags.add(tag);
+            }
+        }
+        if (removedTags.isEmpty() && addedTags.isEmpty()) {
+            return;
+        }
+        RBatch versionBatch = redissonClient.createBatch();
+        versionBatch.<String>getBucket(VERSION_KEY, StringCodec.INSTANCE).getAsync();
+        versionBatch.<String>getBucket(BUILDING_KEY, StringCodec.INSTANCE).getAsync();
+        List<?> versionList = versionBatch.execute().getResponses();
+        String currentVersion = (String) versionList.get(0);
+        String buildingVersion = (String) versionList.get(1);
+        RBatch batch = redissonClient.createBatch();
+        boolean changed = false;
+        for (String version : Arrays.asList(currentVersion, buildingVersion)) {
+            if (version == null) {
+                continue;
+            }
+            long versionNum = Long.parseLong(version);
+            for (String tag : removedTags) {
+                batch.<Long>getSet(tagKey(versionNum, tag), LongCodec.INSTANCE).removeAsync(userId);
+            }
+            for (String tag : addedTags) {
+                batch.<Long>getSet(tagKey(versionNum, tag), LongCodec.INSTANCE).addAsync(userId);
+            }
+            if (!addedTags.isEmpty()) {
+                batch.<String>getSet(tagsKey(versionNum), StringCodec.INSTANCE).addAllAsync(addedTags);
+            }
+            changed = true;
+        }
+        if (buildingVersion != null && !removedTags.isEmpty()) {
+            List<String> removedMembers = new ArrayList<>(removedTags.size());
+            for (String tag : removedTags) {
+                removedMembers.add(userId + ":" + tag);
+            }
+            RSetAsync<String> removedSet = batch.getSet(removedKey(Long.parseLong(buildingVersion)), StringCodec.INSTANCE);
+            removedSet.addAllAsync(removedMembers);
+            // 和重建标记一样过期，重建的节点挂掉后不会一直留着
+            removedSet.expireAsync(BUILDING_TTL_HOURS, TimeUnit.HOURS);
+        }
+        if (changed) {
+            batch.execute();
+        }
+    }
+
+    /**
+     * 是否已经有建好的索引
+     * @return
+     */
+    public boolean isReady() {
+        return getCurrentVersion() != null;
+    }
+
+    /**
+     * 游标分页查询同时拥有所有标签的用户 id（升序）
+     * 交集按查询缓存成有序集合（分数是用户 id），每页只 ZRANGEBYSCORE (lastId +inf LIMIT，不用每页都重新求交集
+     * 缓存 RESULT_TTL_SECONDS 秒，期间别的用户修改标签最多晚这么久才查得到
+     * @param tagNameList
+     * @param lastId
+     * @param limit
+     * @return 索引还没建好时返回 null
+     */
+    public long[] searchUserIds(Collection<String> tagNameList, long lastId, int limit) {
+        Long version = getCurrentVersion();
+        if (version == null) {
+            return null;
+        }
+        String resultKey = resultKey(version, tagNameList);
+        RBatch batch = redissonClient.createBatch();
+        RScoredSortedSetAsync<Long> resultSet = batch.getScoredSortedSet(resultKey, LongCodec.INSTANCE);
+        resultSet.isExistsAsync();
+        // 下界不小于 0，取不到分数为 -1 的占位成员
+        resultSet.valueRangeAsync(Math.max(lastId, 0), false, Double.POSITIVE_INFINITY, true, 0, limit);
+        List<?> responses = batch.execute().getResponses();
+        if ((Boolean) responses.get(0)) {
+            Collection<?> pageUserIds = (Collection<?>) responses.get(1);
+            long[] result = new long[pageUserIds.size()];
+            int i = 0;
+            for (Object userId : pageUserIds) {
+                result[i++] = ((Number) userId).longValue();
+            }
+            return result;
+        }
+        long[] userIds = intersect(version, tagNameList);
+        cacheResult(resultKey, userIds);
+        int from = Arrays.binarySearch(userIds, lastId + 1);
+        from = from >= 0 ? from : -from - 1;
+        int to = (int) Math.min(userIds.length, (long) from + limit);
+        return Arrays.copyOfRange(userIds, from, to);
+    }
+
+    /**
+     * 交集写到临时有序集合后 RENAME，读的一方不会看到写了一半的结果
+     * 额外放一个分数为 -1 的占位成员，交集为空时也能命中缓存，游标查询不会取到它
+     * @param resultKey
+     * @param userIds
+     */
+    private void cacheResult(String resultKey, long[] userIds) {
+        try {
+            String tempKey = TEMP_KEY_PREFIX + UUID.randomUUID();
+            RBatch batch = redissonClient.createBatch();
+            RScoredSortedSetAsync<Long> tempSet = batch.getScoredSortedSet(tempKey, LongCodec.INSTANCE);
+            tempSet.addAsync(-1, -1L);
+            tempSet.expireAsync(RESULT_TTL_SECONDS, TimeUnit.SECONDS);
+            Map<Long, Double> scoreMap = new HashMap<>(SCAN_BATCH_SIZE * 2);
+            for (long userId : userIds) {
+                scoreMap.put(userId, (double) userId);
+                if (scoreMap.size() >= SCAN_BATCH_SIZE) {
+                    tempSet.addAllAsync(scoreMap);
+                    batch.execute();
+                    batch = redissonClient.createBatch();
+                    tempSet = batch.getScoredSortedSet(tempKey, LongCodec.INSTANCE);
+                    scoreMap = new HashMap<>(SCAN_BATCH_SIZE * 2);
+                }
+            }
+            if (!scoreMap.isEmpty()) {
+                tempSet.addAllAsync(scoreMap);
+            }
+            tempSet.renameAsync(resultKey);
+            batch.execute();
+        } catch (Exception e) {
+            // 缓存写不进去不影响这次查询
+            log.error("cache tag search result error, key={}", resultKey, e);
+        }
+    }
+
+    /**
+     * 求同时拥有所有标签的用户 id（升序）
+     * @param version
+     * @param tagNameList
+     * @return
+     */
+    private long[] intersect(long version, Collection<String> tagNameList) {
+        List<String> keyList = new ArrayList<>();
+        for (String tagName : new LinkedHashSet<>(tagNameList)) {
+            keyList.add(tagKey(version, tagName));
+        }
+        if (keyList.isEmpty()) {
+            return PostingListUtils.EMPTY;
+        }
+        // SCARD 找到最小的 set，交集的大小不会超过它
+        RBatch batch = redissonClient.createBatch();
+        for (String key : keyList) {
+            batch.getSet(key, LongCodec.INSTANCE).sizeAsync();
+        }
+        List<?> sizeList = batch.execute().getResponses();
+        int minIndex = 0;
+        int minSize = Integer.MAX_VALUE;
+        for (int i = 0; i < sizeList.size(); i++) {
+            int size = ((Number) sizeList.get(i)).intValue();
+            if (size < minSize) {
+                minSize = size;
+                minIndex = i;
+            }
+        }
+        if (minSize == 0) {
+            return PostingListUtils.EMPTY;
+        }
+        String minKey = keyList.get(minIndex);
+        List<String> otherKeyList = new ArrayList<>(keyList);
+        otherKeyList.remove(minIndex);
+        LongArrayList userIds = new LongArrayList(minSize);
+        if (minSize <= DIRECT_INTERSECT_THRESHOLD) {
+            RSet<Long> minSet = redissonClient.getSet(minKey, LongCodec.INSTANCE);
+            Set<Long> resultSet = otherKeyList.isEmpty()
+                    ? minSet.readAll()
+                    : minSet.readIntersection(otherKeyList.toArray(new String[0]));
+            for (Long userId : resultSet) {
+                userIds.add(userId);
+            }
+        } else if (otherKeyList.isEmpty()) {
+            scanInto(redissonClient.getSet(minKey, LongCodec.INSTANCE), userIds);
+        } else {
+            // 结果可能很大，存到临时 key 上再用 SSCAN 分批读，避免一次 SINTER 返回几十万个成员阻塞 Redis
+            RSet<Long> tempSet = redissonClient.getSet(TEMP_KEY_PREFIX + UUID.randomUUID(), LongCodec.INSTANCE);
+            try {
+                tempSet.intersection(keyList.toArray(new String[0]));
+                tempSet.expire(60, TimeUnit.SECONDS);
+                scanInto(tempSet, userIds);
+            } finally {
+                tempSet.delete();
+            }
+        }
+        long[] result = userIds.toArray();
+        Arrays.sort(result);
+        return result;
+    }
+
+    private Long getCurrentVersion() {
+        String version = redissonClient.<String>getBucket(VERSION_KEY, StringCodec.INSTANCE).get();
+        return version == null ? null : Long.parseLong(version);
+    }
+
+    /**
+     * 查询结果缓存的 key，标签去重排序后取 md5，同一组标签不管顺序都命中同一个 key
+     */
+    private static String resultKey(long version, Collection<String> tagNameList) {
+        String tags = String.join("\n", new TreeSet<>(tagNameList));
+        return KEY_PREFIX + version + ":result:" + DigestUtils.md5DigestAsHex(tags.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String tagKey(long version, String tag) {
+        return KEY_PREFIX + version + ":tag:" + tag;
+    }
+
+    /**
+     * 这个版本用到的所有标签名，切换版本后按它清理旧版本
+     */
+    private static String tagsKey(long version) {
+        return KEY_PREFIX + version + ":tags";
+    }
+
+    /**
+     * 重建期间去掉的用户标签关系，成员是 “用户 id:标签名”
+     */
+    private static String removedKey(long version) {
+        return KEY_PREFIX + version + ":removed";
+    }
+
+    private void scanInto(RSet<Long> set, LongArrayList userIds) {
+        Iterator<Long> iterator = set.iterator(SCAN_BATCH_SIZE);
+        while (iterator.hasNext()) {
+            userIds.add(iterator.next());
+        }
+    }
+}
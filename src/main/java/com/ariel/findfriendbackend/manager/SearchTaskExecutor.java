@@ -0,0 +1,99 @@
+package com.ariel.findfriendbackend.manager;
+
+import com.ariel.findfriendbackend.config.SearchPoolConfig;
+import com.ariel.findfriendbackend.utils.TopNHeap;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * 分片并行取前 N 个：把 [0, total) 切成若干分片，每个分片在专用 ForkJoinPool 里各自维护一个小顶堆，最后合并
+ * 不用 parallelStream：它用的是公共线程池，会和其他地方互相抢线程
+ * 线程池排队的任务过多时退化为在请求线程里串行计算，不会无限堆积
+ * @author Ariel
+ */
+@Component
+@Slf4j
+public class SearchTaskExecutor {
+
+    @Resource
+    private ForkJoinPool searchForkJoinPool;
+
+    @Resource
+    private SearchPoolConfig searchPoolConfig;
+
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    /**
+     * 线程池饱和、退化为串行计算的次数
+     */
+    private Counter saturatedCounter;
+
+    @PostConstruct
+    public void init() {
+        saturatedCounter = Counter.builder("friend.search.pool.saturated")
+                .description("搜索线程池排队过多，改为在请求线程里串行计算的次数")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 分片打分，合并各分片的前 num 个
+     * @param total 打分对象总数
+     * @param num
+     * @param chunkScorer 给 [from, to) 打分并放进堆里，会被多个线程同时调用
+     * @return
+     */
+    public TopNHeap topN(int total, int num, ChunkScorer chunkScorer) {
+        int chunkSize = Math.max(1, searchPoolConfig.getChunkSize());
+        TopNHeap result = new TopNHeap(num);
+        if (total <= chunkSize) {
+            chunkScorer.score(0, total, result);
+            return result;
+        }
+        if (searchForkJoinPool.getQueuedSubmissionCount() >= searchPoolConfig.getMaxQueuedSubmissions()) {
+            saturatedCounter.increment();
+            chunkScorer.score(0, total, result);
+            return result;
+        }
+        // 第一片在请求线程里算，其余提交到线程池
+        List<ForkJoinTask<TopNHeap>> tasks = new ArrayList<>(total / chunkSize + 1);
+        for (int from = chunkSize; from < total; from += chunkSize) {
+            int chunkFrom = from;
+            int chunkTo = Math.min(from + chunkSize, total);
+            tasks.add(searchForkJoinPool.submit(() -> {
+                TopNHeap chunkHeap = new TopNHeap(num);
+                chunkScorer.score(chunkFrom, chunkTo, chunkHeap);
+                return chunkHeap;
+            }));
+        }
+        chunkScorer.score(0, chunkSize, result);
+        for (ForkJoinTask<TopNHeap> task : tasks) {
+            result.offerAll(task.join());
+        }
+        return result;
+    }
+
+    /**
+     * 给一个分片打分
+     */
+    @FunctionalInterface
+    public interface ChunkScorer {
+
+        /**
+         * 给 [from, to) 打分，放进 topNHeap
+         * @param from
+         * @param to
+         * @param topNHeap
+         */
+        void score(int from, int to, TopNHeap topNHeap);
+    }
+}
@@ -0,0 +1,222 @@
+package com.ariel.findfriendbackend.manager;
+
+import com.ariel.findfriendbackend.utils.IntIntHashMap;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StopWatch;
+
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 标签共现矩阵：两个标签同时出现在多少个用户身上，稀疏存储，每个标签一行 int -> int 计数
+ * 每个标签预先算好共现最多的前 TOP_NEIGHBOR_NUM 个邻居，请求时只合并用户几个标签的邻居表，不扫描用户
+ * @author Ariel
+ */
+@Component
+@Slf4j
+public class TagCooccurrenceManager {
+
+    /**
+     * 每个标签保留的共现邻居数
+     */
+    private static final int TOP_NEIGHBOR_NUM = 50;
+
+    private static final int[] EMPTY_NEIGHBORS = new int[0];
+
+    @Resource
+    private TagDictionary tagDictionary;
+
+    /**
+     * 共现计数，rows[a].get(b) 是同时拥有标签 a、b 的用户数，只在持有锁时读写
+     */
+    private IntIntHashMap[] rows = new IntIntHashMap[0];
+
+    /**
+     * 每个标签拥有的用户数，只在持有锁时读写
+     */
+    private int[] tagUserCounts = new int[0];
+
+    /**
+     * 每个标签的前 N 个邻居，格式 [邻居 id, 共现数, 邻居 id, 共现数 ...]，按共现数降序
+     */
+    private volatile int[][] topNeighbors = new int[0][];
+
+    /**
+     * 和 topNeighbors 对应的标签用户数快照，读的时候不加锁
+     */
+    private volatile int[] tagUserCountSnapshot = new int[0];
+
+    private volatile boolean ready = false;
+
+    /**
+     * 用内存索引里缓存的用户标签全量重建，不查数据库
+     * 重建期间的增量修改会落在旧矩阵上丢掉，由下一次定时重建校正
+     * @param userTagMap 用户 id -> 升序标签 id 数组
+     */
+    public void rebuild(Map<Long, int[]> userTagMap) {
+        StopWatch stopWatch = new StopWatch();
+        stopWatch.start();
+        IntIntHashMap[] newRows = new IntIntHashMap[tagDictionary.size()];
+        int[] newTagUserCounts = new int[newRows.length];
+        for (int[] tagIds : userTagMap.values()) {
+            newRows = ensureCapacity(newRows, tagIds);
+            newTagUserCounts = ensureCapacity(newTagUserCounts, newRows.length);
+            addPairs(newRows, newTagUserCounts, tagIds, 1);
+        }
+        int[][] newTopNeighbors = new int[newRows.length][];
+        for (int tagId = 0; tagId < newRows.length; tagId++) {
+            newTopNeighbors[tagId] = computeTopNeighbors(newRows[tagId]);
+        }
+        synchronized (this) {
+            rows = newRows;
+            tagUserCounts = newTagUserCounts;
+            topNeighbors = newTopNeighbors;
+            tagUserCountSnapshot = newTagUserCounts.clone();
+            ready = true;
+        }
+        stopWatch.stop();
+        log.info("tag cooccurrence built, tags={}, time={}ms", newRows.length, stopWatch.getTotalTimeMillis());
+    }
+
+    /**
+     * 用户标签变化时增量更新：旧标签两两 -1，新标签两两 +1，只重算涉及到的标签的邻居表
+     * 还没构建好时忽略，构建时会从内存索引读到最新的标签
+     * @param oldTagIds
+     * @param newTagIds
+     */
+    public synchronized void updateUserTags(int[] oldTagIds, int[] newTagIds) {
+        if (!ready || Arrays.equals(oldTagIds, newTagIds)) {
+            return;
+        }
+        rows = ensureCapacity(rows, newTagIds);
+        tagUserCounts = ensureCapacity(tagUserCounts, rows.length);
+        addPairs(rows, tagUserCounts, oldTagIds, -1);
+        addPairs(rows, tagUserCounts, newTagIds, 1);
+        int[][] newTopNeighbors = topNeighbors.length < rows.length
+                ? Arrays.copyOf(topNeighbors, rows.length) : topNeighbors.clone();
+        for (int tagId : oldTagIds) {
+            newTopNeighbors[tagId] = computeTopNeighbors(rows[tagId]);
+        }
+        for (int tagId : newTagIds) {
+            newTopNeighbors[tagId] = computeTopNeighbors(rows[tagId]);
+        }
+        topNeighbors = newTopNeighbors;
+        tagUserCountSnapshot = tagUserCounts.clone();
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * 推荐和用户已有标签共现最强的标签
+     * 分数 = 共现数 / sqrt(两个标签各自的用户数)，避免总是推荐最热门的标签
+     * @param userTagIds 用户已有的升序标签 id
+     * @param limit
+     * @return
+     */
+    public List<String> suggestTags(int[] userTagIds, int limit) {
+        int[][] currentTopNeighbors = topNeighbors;
+        int[] counts = tagUserCountSnapshot;
+        // 候选数最多是 用户标签数 * TOP_NEIGHBOR_NUM，用一张小的开放寻址表累加分数
+        int capacity = Integer.highestOneBit(Math.max(userTagIds.length * TOP_NEIGHBOR_NUM, 1) * 2) << 1;
+        int mask = capacity - 1;
+        int[] candidateIds = new int[capacity];
+        Arrays.fill(candidateIds, -1);
+        double[] scores = new double[capacity];
+        int candidateNum = 0;
+        for (int tagId : userTagIds) {
+            if (tagId >= currentTopNeighbors.length || currentTopNeighbors[tagId] == null || tagId >= counts.length) {
+                continue;
+            }
+            int[] neighbors = currentTopNeighbors[tagId];
+            for (int i = 0; i < neighbors.length; i += 2) {
+                int neighborId = neighbors[i];
+                if (Arrays.binarySearch(userTagIds, neighborId) >= 0 || neighborId >= counts.length) {
+                    continue;
+                }
+                double score = neighbors[i + 1] / Math.sqrt((double) counts[tagId] * counts[neighborId]);
+                int slot = (neighborId * 0x9E3779B9 >>> 16) & mask;
+                while (candidateIds[slot] != -1 && candidateIds[slot] != neighborId) {
+                    slot = (slot + 1) & mask;
+                }
+                if (candidateIds[slot] == -1) {
+                    candidateIds[slot] = neighborId;
+                    candidateNum++;
+                }
+                scores[slot] += score;
+            }
+        }
+        // 按分数降序取前 limit 个
+        Integer[] slots = new Integer[candidateNum];
+        int index = 0;
+        for (int slot = 0; slot < capacity; slot++) {
+            if (candidateIds[slot] != -1) {
+                slots[index++] = slot;
+            }
+        }
+        Arrays.sort(slots, (a, b) -> Double.compare(scores[b], scores[a]));
+        List<String> suggestTags = new ArrayList<>(Math.min(limit, candidateNum));
+        for (int i = 0; i < candidateNum && suggestTags.size() < limit; i++) {
+            suggestTags.add(tagDictionary.getName(candidateIds[slots[i]]));
+        }
+        return suggestTags;
+    }
+
+    private static void addPairs(IntIntHashMap[] targetRows, int[] targetCounts, int[] tagIds, int delta) {
+        for (int i = 0; i < tagIds.length; i++) {
+            int a = tagIds[i];
+            targetCounts[a] += delta;
+            for (int j = i + 1; j < tagIds.length; j++) {
+                int b = tagIds[j];
+                if (targetRows[a] == null) {
+                    targetRows[a] = new IntIntHashMap();
+                }
+                if (targetRows[b] == null) {
+                    targetRows[b] = new IntIntHashMap();
+                }
+                targetRows[a].addTo(b, delta);
+                targetRows[b].addTo(a, delta);
+            }
+        }
+    }
+
+    private static int[] computeTopNeighbors(IntIntHashMap row) {
+        if (row == null || row.size() == 0) {
+            return EMPTY_NEIGHBORS;
+        }
+        // 高 32 位放共现数、低 32 位放邻居 id，排一次序就能按共现数降序取
+        long[] keys = new long[row.size()];
+        int count = 0;
+        for (int slot = 0; slot < row.capacity(); slot++) {
+            if (row.keyAt(slot) >= 0 && row.valueAt(slot) > 0) {
+                keys[count++] = ((long) row.valueAt(slot) << 32) | row.keyAt(slot);
+            }
+        }
+        Arrays.sort(keys, 0, count);
+        int topNum = Math.min(count, TOP_NEIGHBOR_NUM);
+        int[] neighbors = new int[topNum * 2];
+        for (int i = 0; i < topNum; i++) {
+            long key = keys[count - 1 - i];
+            neighbors[i * 2] = (int) key;
+            neighbors[i * 2 + 1] = (int) (key >>> 32);
+        }
+        return neighbors;
+    }
+
+    private static IntIntHashMap[] ensureCapacity(IntIntHashMap[] targetRows, int[] tagIds) {
+        int maxTagId = -1;
+        for (int tagId : tagIds) {
+            maxTagId = Math.max(maxTagId, tagId);
+        }
+        return maxTagId < targetRows.length ? targetRows : Arrays.copyOf(targetRows, maxTagId + 1);
+    }
+
+    private static int[] ensureCapacity(int[] targetCounts, int length) {
+        return length <= targetCounts.length ? targetCounts : Arrays.copyOf(targetCounts, length);
+    }
+}
@@ -0,0 +1,174 @@
+package com.ariel.findfriendbackend.manager;
+
+import com.ariel.findfriendbackend.mapper.TagMapper;
+import com.ariel.findfriendbackend.model.domain.Tag;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 标签字典：标签名 -> 从 0 开始连续编号的 int id，以 tag 表为准
+ * 同一个标签名在进程内只保存一个 String，热路径上只比较 int，不再反复解析 json、创建字符串
+ * id 一旦分配就不会变，索引可以放心地按 id 存储
+ * @author Ariel
+ */
+@Component
+@Slf4j
+public class TagDictionary {
+
+    /**
+     * 不在 tag 表里的标签（历史数据还没回填）对应的 tag 表 id
+     */
+    public static final long UNKNOWN_TAG_ID = 0L;
+
+    @Resource
+    private TagMapper tagMapper;
+
+    private final Map<String, Integer> idMap = new ConcurrentHashMap<>();
+
+    /**
+     * 字典 id -> 标签名，扩容时整体替换
+     */
+    private volatile String[] names = new String[64];
+
+    /**
+     * 字典 id -> tag 表 id
+     */
+    private volatile long[] tagIds = new long[64];
+
+    private volatile int size = 0;
+
+    /**
+     * 从 tag 表加载标签，只会新增，已分配的 id 不变
+     */
+    public void load() {
+        QueryWrapper<Tag> queryWrapper = new QueryWrapper<>();
+        queryWrapper.select("id", "tagName").orderByAsc("id");
+        for (Tag tag : tagMapper.selectList(queryWrapper)) {
+            register(tag.getTagName(), tag.getId());
+        }
+        log.info("tag dictionary loaded, size={}", size);
+    }
+
+    /**
+     * 查询标签的字典 id，不存在时返回 -1
+     * @param tagName
+     * @return
+     */
+    public int getId(String tagName) {
+        if (tagName == null) {
+            return -1;
+        }
+        Integer id = idMap.get(tagName);
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * 查询或分配标签的字典 id，tag 表里还没有的标签先记为 UNKNOWN_TAG_ID
+     * @param tagName
+     * @return
+     */
+    public int register(String tagName) {
+        return register(tagName, UNKNOWN_TAG_ID);
+    }
+
+    /**
+     * 查询或分配标签的字典 id，同时记录 tag 表 id
+     * @param tagName
+     * @param tagId
+     * @return
+     */
+    public int register(String tagName, long tagId) {
+        if (StringUtils.isBlank(tagName)) {
+            return -1;
+        }
+        Integer id = idMap.get(tagName);
+        if (id != null && (tagId == UNKNOWN_TAG_ID || tagIds[id] != UNKNOWN_TAG_ID)) {
+            return id;
+        }
+        synchronized (this) {
+            id = idMap.get(tagName);
+            if (id != null) {
+                if (tagIds[id] == UNKNOWN_TAG_ID) {
+                    tagIds[id] = tagId;
+                }
+                return id;
+            }
+            int newId = size;
+            if (newId == names.length) {
+                tagIds = Arrays.copyOf(tagIds, newId << 1);
+                names = Arrays.copyOf(names, newId << 1);
+            }
+            // 先写数组再放进 map，别的线程从 map 拿到 id 时一定能读到名字
+            names[newId] = tagName;
+            tagIds[newId] = tagId;
+            size = newId + 1;
+            idMap.put(tagName, newId);
+            return newId;
+        }
+    }
+
+    /**
+     * 把标签名集合转换为升序的字典 id 数组，不存在的标签会被分配 id
+     * @param tagNames
+     * @return
+     */
+    public int[] registerAll(Collection<String> tagNames) {
+        int[] ids = new int[tagNames.size()];
+        int count = 0;
+        for (String tagName : tagNames) {
+            int id = register(tagName);
+            if (id >= 0) {
+                ids[count++] = id;
+            }
+        }
+        return sortDistinct(ids, count);
+    }
+
+    /**
+     * 把标签名集合转换为升序的字典 id 数组，忽略字典里没有的标签
+     * @param tagNames
+     * @return
+     */
+    public int[] getIds(Collection<String> tagNames) {
+        int[] ids = new int[tagNames.size()];
+        int count = 0;
+        for (String tagName : tagNames) {
+            int id = getId(tagName);
+            if (id >= 0) {
+                ids[count++] = id;
+            }
+        }
+        return sortDistinct(ids, count);
+    }
+
+    public String getName(int id) {
+        return id >= 0 && id < size ? names[id] : null;
+    }
+
+    public long getTagId(int id) {
+        return id >= 0 && id < size ? tagIds[id] : UNKNOWN_TAG_ID;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private static int[] sortDistinct(int[] ids, int count) {
+        Arrays.sort(ids, 0, count);
+        int distinct = 0;
+        for (int i = 0; i < count; i++) {
+            if (distinct == 0 || ids[distinct - 1] != ids[i]) {
+                ids[distinct++] = ids[i];
+            }
+        }
+        return distinct == ids.length ? ids : Arrays.copyOf(ids, distinct);
+    }
+}
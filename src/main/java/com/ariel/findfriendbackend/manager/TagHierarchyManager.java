@@ -0,0 +1,138 @@
+package com.ariel.findfriendbackend.manager;
+
+import com.ariel.findfriendbackend.mapper.TagMapper;
+import com.ariel.findfriendbackend.model.domain.Tag;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.*;
+
+/**
+ * 标签层级闭包：按 tag.parentID 预先算好每个标签的所有后代标签（字典 id），常驻内存
+ * 搜索父标签时展开成它和所有后代标签，对倒排表求并集，不用反复查库
+ * @author Ariel
+ */
+@Component
+@Slf4j
+public class TagHierarchyManager {
+
+    private static final int[] EMPTY_TAG_IDS = new int[0];
+
+    @Resource
+    private TagMapper tagMapper;
+
+    @Resource
+    private TagDictionary tagDictionary;
+
+    /**
+     * 字典 id -> 升序的后代标签字典 id（不含自己），叶子标签为 null
+     */
+    private volatile int[][] descendantIds = new int[0][];
+
+    /**
+     * tag 表的版本（标签数 + 最后修改时间），没变化时不重建
+     */
+    private String version;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void init() {
+        try {
+            refresh();
+        } catch (Exception e) {
+            log.error("build tag hierarchy error", e);
+        }
+    }
+
+    /**
+     * tag 表有变化时重新加载父子关系并计算闭包
+     */
+    public synchronized void refresh() {
+        QueryWrapper<Tag> versionQueryWrapper = new QueryWrapper<>();
+        versionQueryWrapper.select("count(*) as tagNum", "max(updateTime) as lastUpdateTime");
+        List<Map<String, Object>> versionMaps = tagMapper.selectMaps(versionQueryWrapper);
+        String newVersion = versionMaps.isEmpty() ? "" : String.valueOf(versionMaps.get(0));
+        if (newVersion.equals(version)) {
+            return;
+        }
+        QueryWrapper<Tag> queryWrapper = new QueryWrapper<>();
+        queryWrapper.select("id", "tagName", "parentID");
+        List<Tag> tagList = tagMapper.selectList(queryWrapper);
+        Map<Long, Integer> dictIdMap = new HashMap<>(tagList.size() * 2);
+        for (Tag tag : tagList) {
+            int dictId = tagDictionary.register(tag.getTagName(), tag.getId());
+            if (dictId >= 0) {
+                dictIdMap.put(tag.getId(), dictId);
+            }
+        }
+        int tagNum = tagDictionary.size();
+        int[] parentOf = new int[tagNum];
+        Arrays.fill(parentOf, -1);
+        for (Tag tag : tagList) {
+            Integer dictId = dictIdMap.get(tag.getId());
+            Integer parentDictId = tag.getParentID() == null ? null : dictIdMap.get(tag.getParentID());
+            if (dictId != null && parentDictId != null && !parentDictId.equals(dictId)) {
+                parentOf[dictId] = parentDictId;
+            }
+        }
+        // 每个标签沿父链向上走，把自己加到每个祖先的后代里；数据里有环时最多走 tagNum 步
+        List<List<Integer>> building = new ArrayList<>(tagNum);
+        for (int i = 0; i < tagNum; i++) {
+            building.add(null);
+        }
+        int pairNum = 0;
+        for (int tagId = 0; tagId < tagNum; tagId++) {
+            int depth = 0;
+            for (int ancestor = parentOf[tagId]; ancestor >= 0 && ancestor != tagId && depth < tagNum;
+                 ancestor = parentOf[ancestor], depth++) {
+                if (building.get(ancestor) == null) {
+                    building.set(ancestor, new ArrayList<>());
+                }
+                building.get(ancestor).add(tagId);
+                pairNum++;
+            }
+        }
+        int[][] newDescendantIds = new int[tagNum][];
+        for (int tagId = 0; tagId < tagNum; tagId++) {
+            List<Integer> descendants = building.get(tagId);
+            if (descendants != null) {
+                newDescendantIds[tagId] = descendants.stream().mapToInt(Integer::intValue)
+                        .sorted().distinct().toArray();
+            }
+        }
+        descendantIds = newDescendantIds;
+        version = newVersion;
+        log.info("tag hierarchy built, tags={}, pairs={}", tagNum, pairNum);
+    }
+
+    /**
+     * 后代标签的升序字典 id（不含自己），叶子标签返回空数组
+     * @param tagId
+     * @return
+     */
+    public int[] getDescendantIds(int tagId) {
+        int[][] currentDescendantIds = descendantIds;
+        if (tagId < 0 || tagId >= currentDescendantIds.length || currentDescendantIds[tagId] == null) {
+            return EMPTY_TAG_IDS;
+        }
+        return currentDescendantIds[tagId];
+    }
+
+    /**
+     * 把标签名展开为它自己和所有后代标签名
+     * @param tagName
+     * @return
+     */
+    public Set<String> expandTagName(String tagName) {
+        int[] descendants = getDescendantIds(tagDictionary.getId(tagName));
+        Set<String> tagNames = new HashSet<>(descendants.length * 2 + 2);
+        tagNames.add(tagName);
+        for (int descendant : descendants) {
+            tagNames.add(tagDictionary.getName(descendant));
+        }
+        return tagNames;
+    }
+}
@@ -0,0 +1,464 @@
+package com.ariel.findfriendbackend.manager;
+
+import com.ariel.findfriendbackend.mapper.UserMapper;
+import com.ariel.findfriendbackend.model.domain.User;
+import com.ariel.findfriendbackend.utils.LongArrayList;
+import com.ariel.findfriendbackend.utils.PostingListUtils;
+import com.ariel.findfriendbackend.utils.TagUtils;
+import com.ariel.findfriendbackend.utils.TopNHeap;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StopWatch;
+
+import javax.annotation.Resource;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 内存标签倒排索引：标签字典 id -> 升序用户 id 数组，同时缓存每个用户的升序标签 id 数组
+ * 启动时全量构建，用户注册 / 修改标签时增量维护，按标签查询时对倒排表求交集，只回表加载命中的用户
+ * @author Ariel
+ */
+@Component
+@Slf4j
+public class TagIndexManager {
+
+    /**
+     * 构建索引时每批读取的用户数
+     */
+    private static final int BUILD_BATCH_SIZE = 1000;
+
+    private static final int[] EMPTY_TAG_IDS = new int[0];
+
+    @Resource
+    private UserMapper userMapper;
+
+    @Resource
+    private TagDictionary tagDictionary;
+
+    @Resource
+    private TagCooccurrenceManager tagCooccurrenceManager;
+
+    @Resource
+    private TagHierarchyManager tagHierarchyManager;
+
+    @Resource
+    private UserMatchManager userMatchManager;
+
+    @Resource
+    private MinHashLshManager minHashLshManager;
+
+    @Resource
+    private SearchTaskExecutor searchTaskExecutor;
+
+    /**
+     * 倒排表，数组写时复制，读的时候不需要加锁
+     */
+    private volatile Map<Integer, long[]> postingMap = new ConcurrentHashMap<>();
+
+    /**
+     * 用户 id -> 升序标签 id 数组（正排），标签修改时整体替换
+     */
+    private volatile Map<Long, int[]> userTagMap = new ConcurrentHashMap<>();
+
+    /**
+     * 写锁，保证同一个标签的倒排表不会被并发覆盖
+     */
+    private final Object writeLock = new Object();
+
+    /**
+     * 重建期间发生的增量修改，重建完成后回放到新索引上
+     */
+    private List<TagChange> pendingChanges;
+
+    private volatile boolean ready = false;
+
+    /**
+     * 项目启动完成后构建索引，构建失败时查询会退回到全表扫描
+     * 排在其他启动监听器前面，依赖标签字典和倒排表的组件启动时可以直接用
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    @Order(Ordered.HIGHEST_PRECEDENCE)
+    public void init() {
+        try {
+            rebuild();
+        } catch (Exception e) {
+            log.error("build tag index error", e);
+        }
+    }
+
+    /**
+     * 全量重建索引，按 id 游标分批只查询 id 和 tags
+     */
+    public void rebuild() {
+        StopWatch stopWatch = new StopWatch();
+        stopWatch.start();
+        tagDictionary.load();
+        synchronized (writeLock) {
+            pendingChanges = new ArrayList<>();
+        }
+        Map<Integer, LongArrayList> building = new HashMap<>();
+        Map<Long, int[]> newUserTagMap = new ConcurrentHashMap<>();
+        long lastId = 0;
+        try {
+            while (true) {
+                QueryWrapper<User> queryWrapper = new QueryWrapper<>();
+                queryWrapper.select("id", "tags")
+                        .gt("id", lastId)
+                        .isNotNull("tags")
+                        .orderByAsc("id")
+                        .last("limit " + BUILD_BATCH_SIZE);
+                List<User> userList = userMapper.selectList(queryWrapper);
+                if (userList.isEmpty()) {
+                    break;
+                }
+                // 按 id 升序读取，直接追加就是有序的
+                for (User user : userList) {
+                    int[] tagIds = tagDictionary.registerAll(TagUtils.parseTags(user.getTags()));
+                    if (tagIds.length == 0) {
+                        continue;
+                    }
+                    newUserTagMap.put(user.getId(), tagIds);
+                    for (int tagId : tagIds) {
+                        building.computeIfAbsent(tagId, k -> new LongArrayList()).add(user.getId());
+                    }
+                }
+                lastId = userList.get(userList.size() - 1).getId();
+            }
+        } catch (RuntimeException e) {
+            synchronized (writeLock) {
+                pendingChanges = null;
+            }
+            throw e;
+        }
+        Map<Integer, long[]> newPostingMap = new ConcurrentHashMap<>(building.size() * 2);
+        building.forEach((tagId, userIds) -> newPostingMap.put(tagId, userIds.toArray()));
+        synchronized (writeLock) {
+            for (TagChange change : pendingChanges) {
+                applyChange(newPostingMap, newUserTagMap, change);
+            }
+            pendingChanges = null;
+            postingMap = newPostingMap;
+            userTagMap = newUserTagMap;
+            ready = true;
+        }
+        tagCooccurrenceManager.rebuild(newUserTagMap);
+        userMatchManager.rebuild(newUserTagMap);
+        minHashLshManager.rebuild(newUserTagMap);
+        stopWatch.stop();
+        log.info("tag index built, tags={}, users={}, time={}ms", newPostingMap.size(), newUserTagMap.size(),
+                stopWatch.getTotalTimeMillis());
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * 用户标签发生变化时增量更新倒排表和用户标签缓存
+     * @param userId
+     * @param oldTags
+     * @param newTags
+     */
+    public void updateUserTags(long userId, Set<String> oldTags, Set<String> newTags) {
+        int[] newTagIds = tagDictionary.registerAll(newTags);
+        synchronized (writeLock) {
+            int[] oldTagIds = userTagMap.get(userId);
+            if (oldTagIds == null) {
+                oldTagIds = tagDictionary.getIds(oldTags);
+            }
+            if (Arrays.equals(oldTagIds, newTagIds)) {
+                return;
+            }
+            TagChange change = new TagChange(userId, oldTagIds, newTagIds);
+            applyChange(postingMap, userTagMap, change);
+            if (pendingChanges != null) {
+                pendingChanges.add(change);
+            }
+            // 在写锁里同步共现矩阵，同一个用户的两次修改不会乱序
+            tagCooccurrenceManager.updateUserTags(oldTagIds, newTagIds);
+            userMatchManager.updateUserTags(userId, newTagIds);
+            minHashLshManager.updateUserTags(userId, oldTagIds, newTagIds);
+        }
+    }
+
+    /**
+     * 查询同时拥有所有标签的用户 id（升序）
+     * @param tagNameList
+     * @return
+     */
+    public long[] searchUserIds(Collection<String> tagNameList) {
+        List<long[]> postingLists = getPostingLists(tagNameList);
+        if (postingLists.isEmpty()) {
+            return PostingListUtils.EMPTY;
+        }
+        long[] result = postingLists.get(0);
+        for (int i = 1; i < postingLists.size() && result.length > 0; i++) {
+            result = PostingListUtils.intersect(result, postingLists.get(i));
+        }
+        return result;
+    }
+
+    /**
+     * 游标分页查询同时拥有所有标签的用户 id，只取 id 大于 lastId 的前 limit 个
+     * @param tagNameList
+     * @param lastId
+     * @param limit
+     * @return
+     */
+    public long[] searchUserIds(Collection<String> tagNameList, long lastId, int limit) {
+        List<long[]> postingLists = getPostingLists(tagNameList);
+        if (postingLists.isEmpty()) {
+            return PostingListUtils.EMPTY;
+        }
+        return PostingListUtils.intersectAfter(postingLists, lastId, limit);
+    }
+
+    /**
+     * 按标签组游标分页查询用户 id：组内任意一个标签命中即可（并集），组之间要求都命中（交集）
+     * @param tagGroups
+     * @param lastId
+     * @param limit
+     * @return
+     */
+    public long[] searchUserIdsByGroups(List<? extends Collection<String>> tagGroups, long lastId, int limit) {
+        List<long[]> postingLists = getGroupPostingLists(tagGroups);
+        if (postingLists.isEmpty()) {
+            return PostingListUtils.EMPTY;
+        }
+        return PostingListUtils.intersectAfter(postingLists, lastId, limit);
+    }
+
+    /**
+     * 查询拥有任意一个标签的用户，按分数取前 limit 个
+     * 对各标签的倒排表做多路归并，同一个用户的分数 = 命中标签的权重之和，用定长小顶堆保留前 limit 个
+     * 代价和命中的用户数成正比，与用户总数无关
+     * @param tagNameList
+     * @param weighted false 时每个标签权重为 1；true 时权重为 IDF，越少人用的标签权重越高
+     * @param limit
+     * @return 按分数降序的用户 id
+     */
+    public long[] searchTopUserIds(Collection<String> tagNameList, boolean weighted, int limit) {
+        Map<Integer, long[]> currentPostingMap = postingMap;
+        int userNum = userTagMap.size();
+        List<long[]> postingLists = new ArrayList<>(tagNameList.size());
+        for (String tagName : new HashSet<>(tagNameList)) {
+            long[] postingList = getExpandedPostingList(currentPostingMap, tagDictionary.getId(tagName));
+            if (postingList != null && postingList.length > 0) {
+                postingLists.add(postingList);
+            }
+        }
+        int listNum = postingLists.size();
+        if (listNum == 0) {
+            return PostingListUtils.EMPTY;
+        }
+        double[] weights = new double[listNum];
+        for (int i = 0; i < listNum; i++) {
+            weights[i] = weighted ? Math.log(1 + (double) userNum / postingLists.get(i).length) : 1;
+        }
+        // 按最长倒排表切分用户 id 区间，各区间并行归并，每个区间各自取前 limit 个再合并
+        long[] longest = Collections.max(postingLists, Comparator.comparingInt(list -> list.length));
+        TopNHeap topNHeap = searchTaskExecutor.topN(longest.length, limit, (from, to, chunkHeap) -> {
+            long lowerUserId = from == 0 ? Long.MIN_VALUE : longest[from];
+            long upperUserId = to == longest.length ? Long.MAX_VALUE : longest[to];
+            mergeRange(postingLists, weights, lowerUserId, upperUserId, chunkHeap);
+        });
+        return topNHeap.pollAllDescending();
+    }
+
+    /**
+     * 多路归并 [lowerUserId, upperUserId) 区间内的用户，分数 = 命中的倒排表权重之和
+     */
+    private static void mergeRange(List<long[]> postingLists, double[] weights, long lowerUserId, long upperUserId,
+                                   TopNHeap topNHeap) {
+        int listNum = postingLists.size();
+        int[] positions = new int[listNum];
+        for (int i = 0; i < listNum; i++) {
+            int index = Arrays.binarySearch(postingLists.get(i), lowerUserId);
+            positions[i] = index >= 0 ? index : -index - 1;
+        }
+        // 查询标签一般只有几个，每步线性找出各路当前最小的用户 id
+        while (true) {
+            long minUserId = Long.MAX_VALUE;
+            for (int i = 0; i < listNum; i++) {
+                if (positions[i] < postingLists.get(i).length) {
+                    minUserId = Math.min(minUserId, postingLists.get(i)[positions[i]]);
+                }
+            }
+            if (minUserId == Long.MAX_VALUE || minUserId >= upperUserId) {
+                break;
+            }
+            double score = 0;
+            for (int i = 0; i < listNum; i++) {
+                long[] postingList = postingLists.get(i);
+                if (positions[i] < postingList.length && postingList[positions[i]] == minUserId) {
+                    score += weights[i];
+                    positions[i]++;
+                }
+            }
+            topNHeap.offer(score, minUserId);
+        }
+    }
+
+    /**
+     * 获取用户的升序标签 id 数组，没有标签时返回空数组
+     * @param userId
+     * @return
+     */
+    public int[] getUserTagIds(long userId) {
+        int[] tagIds = userTagMap.get(userId);
+        return tagIds == null ? EMPTY_TAG_IDS : tagIds;
+    }
+
+    /**
+     * 所有用户的标签 id 缓存，只读视图
+     * @return
+     */
+    public Map<Long, int[]> getUserTagMap() {
+        return Collections.unmodifiableMap(userTagMap);
+    }
+
+    /**
+     * 拥有某个标签的用户数
+     * @param tagId
+     * @return
+     */
+    public int getTagUserCount(int tagId) {
+        long[] postingList = postingMap.get(tagId);
+        return postingList == null ? 0 : postingList.length;
+    }
+
+    /**
+     * 按拥有的用户数取最热门的标签，跳过 excludeTagIds 里的标签
+     * @param limit
+     * @param excludeTagIds 升序标签 id 数组
+     * @return
+     */
+    public List<String> getPopularTags(int limit, int[] excludeTagIds) {
+        Map<Integer, long[]> currentPostingMap = postingMap;
+        // 高 32 位放用户数、低 32 位放标签 id，排一次序就能按用户数降序取
+        long[] keys = new long[currentPostingMap.size()];
+        int count = 0;
+        for (Map.Entry<Integer, long[]> entry : currentPostingMap.entrySet()) {
+            int tagId = entry.getKey();
+            if (Arrays.binarySearch(excludeTagIds, tagId) >= 0) {
+                continue;
+            }
+            keys[count++] = ((long) entry.getValue().length << 32) | tagId;
+        }
+        Arrays.sort(keys, 0, count);
+        List<String> popularTags = new ArrayList<>(Math.min(limit, count));
+        for (int i = count - 1; i >= 0 && popularTags.size() < limit; i--) {
+            popularTags.add(tagDictionary.getName((int) keys[i]));
+        }
+        return popularTags;
+    }
+
+    /**
+     * 取出各个标签的倒排表并按长度升序排列，有一个标签没人用时返回空列表
+     * @param tagNameList
+     * @return
+     */
+    private List<long[]> getPostingLists(Collection<String> tagNameList) {
+        List<Set<String>> tagGroups = new ArrayList<>(tagNameList.size());
+        for (String tagName : new HashSet<>(tagNameList)) {
+            tagGroups.add(Collections.singleton(tagName));
+        }
+        return getGroupPostingLists(tagGroups);
+    }
+
+    /**
+     * 取出每组标签倒排表的并集并按长度升序排列，有一组没人命中时返回空列表
+     * 父标签展开为它和所有后代标签倒排表的并集
+     * @param tagGroups
+     * @return
+     */
+    private List<long[]> getGroupPostingLists(List<? extends Collection<String>> tagGroups) {
+        Map<Integer, long[]> currentPostingMap = postingMap;
+        List<long[]> postingLists = new ArrayList<>(tagGroups.size());
+        for (Collection<String> tagGroup : tagGroups) {
+            long[] postingList = null;
+            for (String tagName : tagGroup) {
+                long[] tagPostingList = getExpandedPostingList(currentPostingMap, tagDictionary.getId(tagName));
+                if (tagPostingList != null) {
+                    postingList = postingList == null ? tagPostingList
+                            : PostingListUtils.union(postingList, tagPostingList);
+                }
+            }
+            // 有一组标签没人用，交集一定为空
+            if (postingList == null || postingList.length == 0) {
+                return Collections.emptyList();
+            }
+            postingLists.add(postingList);
+        }
+        // 从最短的倒排表开始求交集，中间结果最小
+        postingLists.sort(Comparator.comparingInt(list -> list.length));
+        return postingLists;
+    }
+
+    private long[] getExpandedPostingList(Map<Integer, long[]> currentPostingMap, int tagId) {
+        if (tagId < 0) {
+            return null;
+        }
+        long[] postingList = currentPostingMap.get(tagId);
+        for (int descendantId : tagHierarchyManager.getDescendantIds(tagId)) {
+            long[] descendantPostingList = currentPostingMap.get(descendantId);
+            if (descendantPostingList != null) {
+                postingList = postingList == null ? descendantPostingList
+                        : PostingListUtils.union(postingList, descendantPostingList);
+            }
+        }
+        return postingList;
+    }
+
+    private void applyChange(Map<Integer, long[]> targetPostingMap, Map<Long, int[]> targetUserTagMap,
+                             TagChange change) {
+        for (int tagId : change.oldTagIds) {
+            if (Arrays.binarySearch(change.newTagIds, tagId) >= 0) {
+                continue;
+            }
+            long[] postingList = targetPostingMap.get(tagId);
+            if (postingList == null) {
+                continue;
+            }
+            long[] newPostingList = PostingListUtils.remove(postingList, change.userId);
+            if (newPostingList.length == 0) {
+                targetPostingMap.remove(tagId);
+            } else {
+                targetPostingMap.put(tagId, newPostingList);
+            }
+        }
+        for (int tagId : change.newTagIds) {
+            long[] postingList = targetPostingMap.getOrDefault(tagId, PostingListUtils.EMPTY);
+            targetPostingMap.put(tagId, PostingListUtils.insert(postingList, change.userId));
+        }
+        if (change.newTagIds.length == 0) {
+            targetUserTagMap.remove(change.userId);
+        } else {
+            targetUserTagMap.put(change.userId, change.newTagIds);
+        }
+    }
+
+    /**
+     * 一次用户标签修改
+     */
+    private static class TagChange {
+
+        private final long userId;
+
+        private final int[] oldTagIds;
+
+        private final int[] newTagIds;
+
+        TagChange(long userId, int[] oldTagIds, int[] newTagIds) {
+            this.userId = userId;
+            this.oldTagIds = oldTagIds;
+            this.newTagIds = newTagIds;
+        }
+    }
+}
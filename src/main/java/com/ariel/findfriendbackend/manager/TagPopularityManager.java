@@ -0,0 +1,258 @@
+package com.ariel.findfriendbackend.manager;
+
+import com.ariel.findfriendbackend.mapper.UserMapper;
+import com.ariel.findfriendbackend.model.domain.User;
+import com.ariel.findfriendbackend.utils.LongArrayList;
+import com.ariel.findfriendbackend.utils.TagUtils;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.BatchOptions;
+import org.redisson.api.RBatch;
+import org.redisson.api.RBucket;
+import org.redisson.api.RFuture;
+import org.redisson.api.RLock;
+import org.redisson.api.RMapAsync;
+import org.redisson.api.RScoredSortedSet;
+import org.redisson.api.RScoredSortedSetAsync;
+import org.redisson.api.RScript;
+import org.redisson.api.RedissonClient;
+import org.redisson.client.codec.StringCodec;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StopWatch;
+
+import javax.annotation.Resource;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 标签热度计数：Redis 有序集合，成员是标签名，分数是拥有该标签的用户数
+ * 用户增删标签时增量 ZINCRBY，推荐标签时只读前 K 个，不再每次全表统计
+ * 计数 key 不存在时增量修改直接跳过，不会建出一个只有部分计数的集合，由定时检查全量重建；每天再全量重建一次校正误差
+ * @author Ariel
+ */
+@Component
+@Slf4j
+public class TagPopularityManager {
+
+    private static final String POPULARITY_KEY = "friend:tagPopularity";
+
+    private static final String TEMP_KEY = POPULARITY_KEY + ":tmp";
+
+    /**
+     * 正在重建的标记，读第一批用户之前设置，之后所有用户的标签修改都会记到 CHANGED_KEY
+     */
+    private static final String BUILDING_KEY = POPULARITY_KEY + ":building";
+
+    /**
+     * 重建期间修改过标签的用户：用户 id -> 最新标签 json，同一个用户只保留最后一次
+     */
+    private static final String CHANGED_KEY = POPULARITY_KEY + ":changed";
+
+    private static final String BUILD_LOCK_KEY = "friend:tagPopularity:build:lock";
+
+    private static final long BUILDING_TTL_HOURS = 1;
+
+    private static final int BUILD_BATCH_SIZE = 1000;
+
+    /**
+     * 增量修改：计数存在时才 ZINCRBY 并清理没人用的标签；正在重建时把用户的最新标签记到 CHANGED_KEY，过期时间和重建标记一样
+     * 读重建标记和写计数在一个脚本里，不会在两者之间切换
+     * KEYS: 计数、重建标记、修改记录；ARGV: 用户 id、最新标签 json，之后每两个是标签名和增量
+     */
+    private static final String UPDATE_SCRIPT =
+            "local toLive = redis.call('exists', KEYS[1]) == 1 "
+                    + "if redis.call('exists', KEYS[2]) == 1 then "
+                    + "  redis.call('hset', KEYS[3], ARGV[1], ARGV[2]) "
+                    + "  redis.call('pexpire', KEYS[3], redis.call('pttl', KEYS[2])) "
+                    + "end "
+                    + "if toLive then "
+                    + "  for i = 3, #ARGV, 2 do redis.call('zincrby', KEYS[1], ARGV[i + 1], ARGV[i]) end "
+                    + "  redis.call('zremrangebyscore', KEYS[1], '-inf', 0) "
+                    + "end "
+                    + "return 1";
+
+    @Resource
+    private RedissonClient redissonClient;
+
+    @Resource
+    private UserMapper userMapper;
+
+    /**
+     * 计数还不存在时（第一次上线或被清掉），抢到锁的节点全量统计一次
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void init() {
+        try {
+            rebuildIfMissing();
+        } catch (Exception e) {
+            log.error("build tag popularity error", e);
+        }
+    }
+
+    public void rebuildIfMissing() {
+        if (getPopularitySet().isExists()) {
+            return;
+        }
+        rebuild();
+    }
+
+    /**
+     * 按 id 分批扫描用户表统计每个标签的用户数，写到临时 key 后 rename，读的一方不会看到统计了一半的数据
+     * 读第一批之前就设置 BUILDING_KEY，扫描期间修改过标签的用户都记在 CHANGED_KEY；扫描时记下每个用户读到的标签，
+     * rename 后按“最新标签 - 扫描读到的标签”修正，不管扫描读到的是改之前还是改之后的标签，结果都一样，不会重复计数
+     * 事务提交后、更新计数之前正好切换版本的修改可能差 1，由每天的全量重建校正
+     */
+    public void rebuild() {
+        RLock lock = redissonClient.getLock(BUILD_LOCK_KEY);
+        if (!lock.tryLock()) {
+            return;
+        }
+        RBucket<String> buildingBucket = redissonClient.getBucket(BUILDING_KEY, StringCodec.INSTANCE);
+        try {
+            StopWatch stopWatch = new StopWatch();
+            stopWatch.start();
+            redissonClient.getMap(CHANGED_KEY, StringCodec.INSTANCE).delete();
+            buildingBucket.set("1", BUILDING_TTL_HOURS, TimeUnit.HOURS);
+            Map<String, Double> tagCountMap = new HashMap<>();
+            // 按 id 升序记下每个用户读到的 tags json，切换后只取修改过标签的那些用户
+            LongArrayList scannedUserIds = new LongArrayList();
+            List<String> scannedTags = new ArrayList<>();
+            long lastId = 0;
+            while (true) {
+                List<User> userList = userMapper.selectUserTags(lastId, BUILD_BATCH_SIZE);
+                for (User user : userList) {
+                    for (String tag : TagUtils.parseTags(user.getTags())) {
+                        tagCountMap.merge(tag, 1D, Double::sum);
+                    }
+                    scannedUserIds.add(user.getId());
+                    scannedTags.add(user.getTags());
+                }
+                if (userList.size() < BUILD_BATCH_SIZE) {
+                    break;
+                }
+                lastId = userList.get(userList.size() - 1).getId();
+            }
+            if (tagCountMap.isEmpty()) {
+                return;
+            }
+            RScoredSortedSet<String> tempSet = redissonClient.getScoredSortedSet(TEMP_KEY, StringCodec.INSTANCE);
+            tempSet.delete();
+            tempSet.addAll(tagCountMap);
+            // rename、去掉重建标记、取出并清空修改记录放在一个事务里，之后的修改只会直接改新的计数
+            RBatch batch = redissonClient.createBatch(BatchOptions.defaults()
+                    .executionMode(BatchOptions.ExecutionMode.IN_MEMORY_ATOMIC));
+            batch.getScoredSortedSet(TEMP_KEY, StringCodec.INSTANCE).renameAsync(POPULARITY_KEY);
+            batch.getBucket(BUILDING_KEY, StringCodec.INSTANCE).deleteAsync();
+            RMapAsync<String, String> changedMap = batch.getMap(CHANGED_KEY, StringCodec.INSTANCE);
+            RFuture<Map<String, String>> changedFuture = changedMap.readAllMapAsync();
+            changedMap.deleteAsync();
+            batch.execute();
+            Map<String, String> changedTagsMap = changedFuture.getNow();
+            Map<String, Double> correctionMap = getCorrections(changedTagsMap, scannedUserIds.toArray(), scannedTags);
+            if (!correctionMap.isEmpty()) {
+                RBatch correctionBatch = redissonClient.createBatch();
+                RScoredSortedSetAsync<String> popularitySet = correctionBatch.getScoredSortedSet(POPULARITY_KEY,
+                        StringCodec.INSTANCE);
+                correctionMap.forEach(popularitySet::addScoreAsync);
+                popularitySet.removeRangeByScoreAsync(Double.NEGATIVE_INFINITY, true, 0, true);
+                correctionBatch.execute();
+            }
+            stopWatch.stop();
+            log.info("tag popularity built, tags={}, changedUsers={}, time={}ms", tagCountMap.size(),
+                    changedTagsMap.size(), stopWatch.getTotalTimeMillis());
+        } finally {
+            if (buildingBucket.isExists()) {
+                buildingBucket.delete();
+            }
+            if (lock.isHeldByCurrentThread()) {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * 重建期间修改过标签的用户，扫描读到的标签换成最新标签后每个标签要补的数
+     * @param changedTagsMap 用户 id -> 最新标签 json
+     * @param scannedUserIds 升序
+     * @param scannedTags 和 scannedUserIds 一一对应
+     * @return 标签名 -> 修正值，不含 0
+     */
+    private static Map<String, Double> getCorrections(Map<String, String> changedTagsMap, long[] scannedUserIds,
+                                                      List<String> scannedTags) {
+        Map<String, Double> correctionMap = new HashMap<>();
+        changedTagsMap.forEach((userId, latestTagsJson) -> {
+            int index = Arrays.binarySearch(scannedUserIds, Long.parseLong(userId));
+            // 没扫到的用户（当时还没有标签）按没有标签算
+            Set<String> scanned = index >= 0 ? TagUtils.parseTags(scannedTags.get(index)) : Collections.emptySet();
+            Set<String> latest = TagUtils.parseTags(latestTagsJson);
+            for (String tag : latest) {
+                if (!scanned.contains(tag)) {
+                    correctionMap.merge(tag, 1D, Double::sum);
+                }
+            }
+            for (String tag : scanned) {
+                if (!latest.contains(tag)) {
+                    correctionMap.merge(tag, -1D, Double::sum);
+                }
+            }
+        });
+        correctionMap.values().removeIf(value -> value == 0);
+        return correctionMap;
+    }
+
+    /**
+     * 用户标签变化时，新增的标签 +1，去掉的标签 -1，再清理掉没人用的标签
+     * 需要在数据库事务提交后调用
+     * @param userId
+     * @param oldTags
+     * @param newTags
+     */
+    public void updateUserTags(long userId, Set<String> oldTags, Set<String> newTags) {
+        List<Object> args = new ArrayList<>();
+        args.add(String.valueOf(userId));
+        args.add(TagUtils.toJson(newTags));
+        for (String tag : oldTags) {
+            if (!newTags.contains(tag)) {
+                args.add(tag);
+                args.add("-1");
+            }
+        }
+        for (String tag : newTags) {
+            if (!oldTags.contains(tag)) {
+                args.add(tag);
+                args.add("1");
+            }
+        }
+        if (args.size() == 2) {
+            return;
+        }
+        redissonClient.getScript(StringCodec.INSTANCE).eval(RScript.Mode.READ_WRITE, UPDATE_SCRIPT,
+                RScript.ReturnType.INTEGER, Arrays.asList(POPULARITY_KEY, BUILDING_KEY, CHANGED_KEY), args.toArray());
+    }
+
+    /**
+     * 取最热门的 limit 个标签，跳过用户自己已有的标签
+     * 多取 excludeTags.size() 个就一定够用，代价是 O(log N + K)
+     * @param limit
+     * @param excludeTags
+     * @return
+     */
+    public List<String> getPopularTags(int limit, Collection<String> excludeTags) {
+        Collection<String> topTags = getPopularitySet().valueRangeReversed(0, limit + excludeTags.size() - 1);
+        List<String> popularTags = new ArrayList<>(limit);
+        for (String tag : topTags) {
+            if (!excludeTags.contains(tag)) {
+                popularTags.add(tag);
+                if (popularTags.size() >= limit) {
+                    break;
+                }
+            }
+        }
+        return popularTags;
+    }
+
+    private RScoredSortedSet<String> getPopularitySet() {
+        return redissonClient.getScoredSortedSet(POPULARITY_KEY, StringCodec.INSTANCE);
+    }
+}
@@ -0,0 +1,223 @@
+package com.ariel.findfriendbackend.manager;
+
+import com.ariel.findfriendbackend.common.ErrorCode;
+import com.ariel.findfriendbackend.config.TeamJoinQueueConfig;
+import com.ariel.findfriendbackend.exception.BusinessException;
+import com.ariel.findfriendbackend.model.enums.TeamJoinStatusEnum;
+import com.ariel.findfriendbackend.model.vo.TeamJoinTicketVo;
+import com.google.gson.Gson;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RBatch;
+import org.redisson.api.RBucket;
+import org.redisson.api.RedissonClient;
+import org.redisson.client.codec.StringCodec;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 排队加入队伍：请求按队伍 id 分到固定分区，每个分区一个线程按到达顺序处理，本节点内同一个队伍的请求不会并发
+ * 处理线程一次取出一批请求交给 BatchHandler（批量校验、批量写库），结果写到 Redis 的凭证里供客户端轮询
+ * 只在本节点内排队：别的节点、同步加入可能同时处理同一个队伍，BatchHandler 要自己按用户加锁；
+ * 节点重启时还没处理的请求会一直是排队中，直到凭证过期
+ * @author Ariel
+ */
+@Component
+@Slf4j
+public class TeamJoinQueue {
+
+    private static final String TICKET_KEY = "friend:team:join:ticket:%s";
+
+    private static final Gson GSON = new Gson();
+
+    @Resource
+    private RedissonClient redissonClient;
+
+    @Resource
+    private TeamJoinQueueConfig teamJoinQueueConfig;
+
+    private List<BlockingQueue<JoinTask>> queues;
+
+    private List<Thread> workers;
+
+    /**
+     * 启动处理线程，由处理加入逻辑的服务在初始化时调用一次
+     * @param batchHandler
+     */
+    public synchronized void start(BatchHandler batchHandler) {
+        if (workers != null) {
+            return;
+        }
+        int partitions = Math.max(1, teamJoinQueueConfig.getPartitions());
+        queues = new ArrayList<>(partitions);
+        workers = new ArrayList<>(partitions);
+        for (int i = 0; i < partitions; i++) {
+            BlockingQueue<JoinTask> queue = new ArrayBlockingQueue<>(teamJoinQueueConfig.getCapacity());
+            Thread worker = new Thread(() -> work(queue, batchHandler), "team-join-" + i);
+            worker.setDaemon(true);
+            queues.add(queue);
+            workers.add(worker);
+            worker.start();
+        }
+    }
+
+    @PreDestroy
+    public synchronized void stop() {
+        if (workers != null) {
+            workers.forEach(Thread::interrupt);
+        }
+    }
+
+    /**
+     * 生成凭证并排队
+     * @param teamId
+     * @param userId
+     * @return 凭证
+     */
+    public String submit(long teamId, long userId) {
+        if (queues == null) {
+            throw new BusinessException(ErrorCode.SYSTEM_ERROR, "排队服务未启动");
+        }
+        JoinTask joinTask = new JoinTask(UUID.randomUUID().toString().replace("-", ""), teamId, userId);
+        // 先写凭证再排队，处理结果不会被排队中的状态覆盖
+        writeTicket(joinTask, TeamJoinStatusEnum.PENDING, null);
+        BlockingQueue<JoinTask> queue = queues.get((int) (Math.abs(teamId) % queues.size()));
+        if (!queue.offer(joinTask)) {
+            redissonClient.getBucket(String.format(TICKET_KEY, joinTask.ticket), StringCodec.INSTANCE).delete();
+            throw new BusinessException(ErrorCode.SYSTEM_ERROR, "排队人数太多，请稍后再试");
+        }
+        return joinTask.ticket;
+    }
+
+    /**
+     * 查询凭证
+     * @param ticket
+     * @return 不存在或已过期时返回 null
+     */
+    public TeamJoinTicketVo getTicket(String ticket) {
+        RBucket<String> bucket = redissonClient.getBucket(String.format(TICKET_KEY, ticket), StringCodec.INSTANCE);
+        String json = bucket.get();
+        return json == null ? null : GSON.fromJson(json, TeamJoinTicketVo.class);
+    }
+
+    private void work(BlockingQueue<JoinTask> queue, BatchHandler batchHandler) {
+        int batchSize = Math.max(1, teamJoinQueueConfig.getBatchSize());
+        List<JoinTask> batch = new ArrayList<>(batchSize);
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            queue.drainTo(batch, batchSize - 1);
+            try {
+                batchHandler.handle(batch);
+            } catch (Exception e) {
+                log.error("team join batch error, size={}", batch.size(), e);
+                for (JoinTask joinTask : batch) {
+                    if (joinTask.isPending()) {
+                        joinTask.fail("系统繁忙，请稍后再试");
+                    }
+                }
+            }
+            writeResults(batch);
+            batch.clear();
+        }
+    }
+
+    /**
+     * 一批结果一次 pipeline 写回
+     */
+    private void writeResults(List<JoinTask> batch) {
+        try {
+            RBatch rBatch = redissonClient.createBatch();
+            for (JoinTask joinTask : batch) {
+                if (joinTask.isPending()) {
+                    joinTask.fail("加入队伍失败");
+                }
+                rBatch.<String>getBucket(String.format(TICKET_KEY, joinTask.ticket), StringCodec.INSTANCE)
+                        .setAsync(toJson(joinTask, joinTask.status, joinTask.message),
+                                teamJoinQueueConfig.getTicketTtlSeconds(), TimeUnit.SECONDS);
+            }
+            rBatch.execute();
+        } catch (Exception e) {
+            log.error("write team join results error, size={}", batch.size(), e);
+        }
+    }
+
+    private void writeTicket(JoinTask joinTask, TeamJoinStatusEnum status, String message) {
+        redissonClient.<String>getBucket(String.format(TICKET_KEY, joinTask.ticket), StringCodec.INSTANCE)
+                .set(toJson(joinTask, status, message), teamJoinQueueConfig.getTicketTtlSeconds(), TimeUnit.SECONDS);
+    }
+
+    private static String toJson(JoinTask joinTask, TeamJoinStatusEnum status, String message) {
+        TeamJoinTicketVo ticketVo = new TeamJoinTicketVo();
+        ticketVo.setTicket(joinTask.ticket);
+        ticketVo.setTeamId(joinTask.teamId);
+        ticketVo.setUserId(joinTask.userId);
+        ticketVo.setStatus(status.getValue());
+        ticketVo.setMessage(message);
+        return GSON.toJson(ticketVo);
+    }
+
+    /**
+     * 处理一批加入请求，逐个调用 succeed 或 fail，没有标记的请求按失败处理
+     */
+    @FunctionalInterface
+    public interface BatchHandler {
+
+        void handle(List<JoinTask> batch);
+    }
+
+    /**
+     * 一个排队中的加入请求
+     */
+    public static class JoinTask {
+
+        private final String ticket;
+
+        private final long teamId;
+
+        private final long userId;
+
+        private TeamJoinStatusEnum status = TeamJoinStatusEnum.PENDING;
+
+        private String message;
+
+        JoinTask(String ticket, long teamId, long userId) {
+            this.ticket = ticket;
+            this.teamId = teamId;
+            this.userId = userId;
+        }
+
+        public long getTeamId() {
+            return teamId;
+        }
+
+        public long getUserId() {
+            return userId;
+        }
+
+        public boolean isPending() {
+            return status == TeamJoinStatusEnum.PENDING;
+        }
+
+        public void succeed() {
+            status = TeamJoinStatusEnum.SUCCESS;
+            message = null;
+        }
+
+        public void fail(String failMessage) {
+            status = TeamJoinStatusEnum.FAILED;
+            message = failMessage;
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package com.ariel.findfriendbackend.manager;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import io.micrometer.core.instrument.Counter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.ValueOperations;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * 两级缓存：一级是进程内的 Caffeine，二级是 Redis，key 就是 Redis 的 key
+ * 读：先查一级，没有再查 Redis，命中后回填一级；都没有时调用方查库后 fill 回填，不通知其他节点
+ * 数据修改后的写入和删除：改 Redis 后通过 Redis 发布订阅通知所有节点删掉一级缓存
+ * 一级缓存里存的是同一个对象，调用方不要修改取到的值
+ * 由 TwoLevelCacheManager 创建
+ * @author Ariel
+ */
+@Slf4j
+public class TwoLevelCache<V> {
+
+    private final String name;
+
+    private final Cache<String, Object> localCache;
+
+    private final RedisTemplate<String, Object> redisTemplate;
+
+    private final TwoLevelCacheManager cacheManager;
+
+    /**
+     * Redis 的过期时间（毫秒），每次写入时取一次，可以带随机抖动
+     */
+    private final LongSupplier redisTtlMillis;
+
+    private final Counter redisHitCounter;
+
+    private final Counter redisMissCounter;
+
+    TwoLevelCache(String name, Cache<String, Object> localCache, RedisTemplate<String, Object> redisTemplate,
+                  TwoLevelCacheManager cacheManager, LongSupplier redisTtlMillis,
+                  Counter redisHitCounter, Counter redisMissCounter) {
+        this.name = name;
+        this.localCache = localCache;
+        this.redisTemplate = redisTemplate;
+        this.cacheManager = cacheManager;
+        this.redisTtlMillis = redisTtlMillis;
+        this.redisHitCounter = redisHitCounter;
+        this.redisMissCounter = redisMissCounter;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * 先查一级缓存，再查 Redis
+     * @param key
+     * @return 都没有时返回 null
+     */
+    @SuppressWarnings("unchecked")
+    public V get(String key) {
+        Object value = localCache.getIfPresent(key);
+        if (value != null) {
+            return (V) value;
+        }
+        try {
+            value = redisTemplate.opsForValue().get(key);
+        } catch (Exception e) {
+            log.error("redis get key error, key={}", key, e);
+            return null;
+        }
+        if (value == null) {
+            redisMissCounter.increment();
+            return null;
+        }
+        redisHitCounter.increment();
+        localCache.put(key, value);
+        return (V) value;
+    }
+
+    /**
+     * 批量查询，一级缓存没有的 key 用一次 MGET 查 Redis
+     * @param keys
+     * @return key -> 值，只包含查到的 key
+     */
+    @SuppressWarnings("unchecked")
+    public Map<String, V> getAll(Collection<String> keys) {
+        Map<String, V> result = new HashMap<>(keys.size() * 2);
+        List<String> missKeys = new ArrayList<>();
+        for (String key : keys) {
+            Object value = localCache.getIfPresent(key);
+            if (value != null) {
+                result.put(key, (V) value);
+            } else {
+                missKeys.add(key);
+            }
+        }
+        if (missKeys.isEmpty()) {
+            return result;
+        }
+        List<Object> values;
+        try {
+            values = redisTemplate.opsForValue().multiGet(missKeys);
+        } catch (Exception e) {
+            log.error("redis multiGet error, cache={}", name, e);
+            return result;
+        }
+        for (int i = 0; i < missKeys.size(); i++) {
+            Object value = values == null ? null : values.get(i);
+            if (value == null) {
+                redisMissCounter.increment();
+                continue;
+            }
+            redisHitCounter.increment();
+            localCache.put(missKeys.get(i), value);
+            result.put(missKeys.get(i), (V) value);
+        }
+        return result;
+    }
+
+    /**
+     * 数据修改后写入新值：写 Redis 和本节点的一级缓存，通知其他节点删掉旧值
+     * 写 Redis 失败只记日志
+     * @param key
+     * @param value
+     */
+    public void put(String key, V value) {
+        if (fill(key, value)) {
+            cacheManager.publishInvalidation(name, key);
+        }
+    }
+
+    /**
+     * 两级缓存都没查到、从数据库查出后回填：写 Redis 和本节点的一级缓存，不通知其他节点
+     * 其他节点一级缓存里的值没有变，通知的话一个节点的未命中会把热点 key 从所有节点的一级缓存里删掉
+     * 写 Redis 失败只记日志，调用方已经有数据库里查到的值
+     * @param key
+     * @param value
+     * @return 是否写入成功
+     */
+    public boolean fill(String key, V value) {
+        try {
+            redisTemplate.opsForValue().set(key, value, redisTtlMillis.getAsLong(), TimeUnit.MILLISECONDS);
+        } catch (Exception e) {
+            log.error("redis set key error, key={}", key, e);
+            return false;
+        }
+        localCache.put(key, value);
+        return true;
+    }
+
+    /**
+     * 批量回填，一次 pipeline 写 Redis（SET + PX），同样不通知其他节点
+     * @param values key -> 值
+     */
+    public void fillAll(Map<String, V> values) {
+        if (values.isEmpty()) {
+            return;
+        }
+        try {
+            redisTemplate.executePipelined(new SessionCallback<Object>() {
+                @Override
+                @SuppressWarnings("unchecked")
+                public <K, T> Object execute(RedisOperations<K, T> operations) {
+                    ValueOperations<String, Object> valueOperations =
+                            ((RedisOperations<String, Object>) operations).opsForValue();
+                    for (Map.Entry<String, V> entry : values.entrySet()) {
+                        valueOperations.set(entry.getKey(), entry.getValue(), redisTtlMillis.getAsLong(),
+                                TimeUnit.MILLISECONDS);
+                    }
+                    return null;
+                }
+            });
+        } catch (Exception e) {
+            log.error("redis pipelined set error, cache={}", name, e);
+            return;
+        }
+        localCache.putAll(values);
+    }
+
+    /**
+     * 删除 Redis 和所有节点的一级缓存
+     * @param key
+     */
+    public void evict(String key) {
+        localCache.invalidate(key);
+        try {
+            redisTemplate.delete(key);
+        } catch (Exception e) {
+            log.error("redis delete key error, key={}", key, e);
+        }
+        cacheManager.publishInvalidation(name, key);
+    }
+
+    /**
+     * 只删本节点的一级缓存，收到其他节点的通知时调用
+     * @param key
+     */
+    void evictLocal(String key) {
+        localCache.invalidate(key);
+    }
+}
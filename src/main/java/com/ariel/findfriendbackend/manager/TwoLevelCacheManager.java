@@ -0,0 +1,155 @@
+package com.ariel.findfriendbackend.manager;
+
+import com.ariel.findfriendbackend.config.TwoLevelCacheConfig;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RTopic;
+import org.redisson.api.RedissonClient;
+import org.redisson.client.codec.StringCodec;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * 创建和管理两级缓存，负责节点之间一级缓存的失效通知
+ * 所有缓存共用一个 Redis 频道，消息是 “节点 id + 缓存名 + key”，收到自己发的消息直接忽略
+ * 指标：cache.gets / cache.evictions 等（Caffeine 自带），friend.cache.redis.requests，
+ * friend.cache.hit.ratio（按 cache 和 level 区分一级、二级）
+ * @author Ariel
+ */
+@Component
+@Slf4j
+public class TwoLevelCacheManager {
+
+    private static final String INVALIDATION_TOPIC = "friend:cache:invalidation";
+
+    private static final String SEPARATOR = "\n";
+
+    @Resource
+    private RedissonClient redissonClient;
+
+    @Resource
+    private RedisTemplate<String, Object> redisTemplate;
+
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    @Resource
+    private TwoLevelCacheConfig twoLevelCacheConfig;
+
+    private final String nodeId = UUID.randomUUID().toString();
+
+    private final Map<String, TwoLevelCache<?>> cacheMap = new ConcurrentHashMap<>();
+
+    private RTopic topic;
+
+    private int listenerId = -1;
+
+    @PostConstruct
+    public void init() {
+        topic = redissonClient.getTopic(INVALIDATION_TOPIC, StringCodec.INSTANCE);
+        listenerId = topic.addListener(String.class, (channel, message) -> onInvalidation(message));
+    }
+
+    @PreDestroy
+    public void destroy() {
+        if (topic != null && listenerId >= 0) {
+            topic.removeListener(listenerId);
+        }
+    }
+
+    /**
+     * 使用默认的一级缓存容量和过期时间
+     * @param name
+     * @param redisTtlMillis
+     * @return
+     */
+    public <V> TwoLevelCache<V> getCache(String name, LongSupplier redisTtlMillis) {
+        return getCache(name, twoLevelCacheConfig.getMaximumSize(), twoLevelCacheConfig.getExpireAfterWriteSeconds(),
+                redisTtlMillis);
+    }
+
+    /**
+     * 取名为 name 的缓存，不存在就创建，同名缓存只以第一次创建时的参数为准
+     * @param name 缓存名，也是指标的 cache 标签
+     * @param maximumSize 一级缓存最多保存的条数
+     * @param expireAfterWriteSeconds 一级缓存写入后多久过期
+     * @param redisTtlMillis Redis 的过期时间（毫秒）
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    public <V> TwoLevelCache<V> getCache(String name, long maximumSize, long expireAfterWriteSeconds,
+                                         LongSupplier redisTtlMillis) {
+        return (TwoLevelCache<V>) cacheMap.computeIfAbsent(name,
+                cacheName -> createCache(cacheName, maximumSize, expireAfterWriteSeconds, redisTtlMillis));
+    }
+
+    /**
+     * 通知其他节点删除一级缓存里的 key
+     * @param cacheName
+     * @param key
+     */
+    void publishInvalidation(String cacheName, String key) {
+        try {
+            topic.publish(nodeId + SEPARATOR + cacheName + SEPARATOR + key);
+        } catch (Exception e) {
+            // 通知失败时其他节点的一级缓存最多旧到过期为止
+            log.error("publish cache invalidation error, cache={}, key={}", cacheName, key, e);
+        }
+    }
+
+    private TwoLevelCache<?> createCache(String name, long maximumSize, long expireAfterWriteSeconds,
+                                         LongSupplier redisTtlMillis) {
+        Cache<String, Object> localCache = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(expireAfterWriteSeconds, TimeUnit.SECONDS)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, localCache, name);
+        Counter redisHitCounter = Counter.builder("friend.cache.redis.requests")
+                .tag("cache", name).tag("result", "hit")
+                .description("一级缓存没命中后查 Redis 的次数")
+                .register(meterRegistry);
+        Counter redisMissCounter = Counter.builder("friend.cache.redis.requests")
+                .tag("cache", name).tag("result", "miss")
+                .description("一级缓存没命中后查 Redis 的次数")
+                .register(meterRegistry);
+        Gauge.builder("friend.cache.hit.ratio", localCache, cache -> cache.stats().hitRate())
+                .tag("cache", name).tag("level", "l1")
+                .description("缓存命中率")
+                .register(meterRegistry);
+        Gauge.builder("friend.cache.hit.ratio", redisHitCounter, hitCounter -> {
+                    double total = hitCounter.count() + redisMissCounter.count();
+                    return total == 0 ? 0 : hitCounter.count() / total;
+                })
+                .tag("cache", name).tag("level", "l2")
+                .description("缓存命中率")
+                .register(meterRegistry);
+        return new TwoLevelCache<>(name, localCache, redisTemplate, this, redisTtlMillis,
+                redisHitCounter, redisMissCounter);
+    }
+
+    private void onInvalidation(String message) {
+        String[] parts = message.split(SEPARATOR, 3);
+        if (parts.length < 3 || nodeId.equals(parts[0])) {
+            return;
+        }
+        TwoLevelCache<?> cache = cacheMap.get(parts[1]);
+        if (cache != null) {
+            cache.evictLocal(parts[2]);
+        }
+    }
+}
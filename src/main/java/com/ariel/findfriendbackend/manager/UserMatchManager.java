@@ -0,0 +1,321 @@
+package com.ariel.findfriendbackend.manager;
+
+import com.ariel.findfriendbackend.utils.TopNHeap;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StopWatch;
+
+import javax.annotation.Resource;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * 相似用户匹配：每个用户的标签编码成定长位图（按标签字典 id 置位），所有用户的位图连续存放在一个 long[] 里
+ * 打分时只对查询用户有标签的那几个 long 做与运算 + popcount 算 Jaccard，配合定长小顶堆取前 N 个，循环里不分配对象
+ * @author Ariel
+ */
+@Component
+@Slf4j
+public class UserMatchManager {
+
+    /**
+     * 行锁分段数，必须是 2 的幂
+     */
+    private static final int ROW_LOCK_STRIPES = 256;
+
+    @Resource
+    private TagDictionary tagDictionary;
+
+    @Resource
+    private SearchTaskExecutor searchTaskExecutor;
+
+    private volatile MatchSnapshot snapshot;
+
+    /**
+     * 新用户或新标签超出了位图预留的行数、宽度，等待定时重建
+     */
+    private volatile boolean dirty = false;
+
+    private boolean building = false;
+
+    /**
+     * 用内存索引里缓存的用户标签全量重建位图
+     * @param userTagMap 用户 id -> 升序标签 id 数组
+     */
+    public void rebuild(Map<Long, int[]> userTagMap) {
+        StopWatch stopWatch = new StopWatch();
+        stopWatch.start();
+        synchronized (this) {
+            building = true;
+            dirty = false;
+        }
+        try {
+            long[] userIds = new long[userTagMap.size()];
+            int userNum = 0;
+            int maxTagId = tagDictionary.size() - 1;
+            for (Map.Entry<Long, int[]> entry : userTagMap.entrySet()) {
+                if (userNum == userIds.length) {
+                    userIds = Arrays.copyOf(userIds, userNum * 2 + 1);
+                }
+                userIds[userNum++] = entry.getKey();
+                int[] tagIds = entry.getValue();
+                if (tagIds.length > 0) {
+                    maxTagId = Math.max(maxTagId, tagIds[tagIds.length - 1]);
+                }
+            }
+            Arrays.sort(userIds, 0, userNum);
+            // 行数和宽度都留余量：新注册的用户追加在末尾，新标签落在预留的位上，都不用等重建
+            int capacity = userNum + (userNum >>> 3) + 64;
+            userIds = Arrays.copyOf(userIds, capacity);
+            int usedWords = (maxTagId + 1 + 63) >>> 6;
+            int words = usedWords + (usedWords >>> 2) + 1;
+            long[] bits = new long[capacity * words];
+            int[] bitCounts = new int[capacity];
+            for (int row = 0; row < userNum; row++) {
+                int[] tagIds = userTagMap.get(userIds[row]);
+                if (tagIds != null) {
+                    setRow(bits, bitCounts, row, words, tagIds);
+                }
+            }
+            snapshot = new MatchSnapshot(userIds, userNum, bits, bitCounts, words);
+        } finally {
+            synchronized (this) {
+                building = false;
+            }
+        }
+        stopWatch.stop();
+        log.info("user match bitsets built, users={}, capacity={}, words={}, time={}ms", snapshot.size,
+                snapshot.userIds.length, snapshot.words, stopWatch.getTotalTimeMillis());
+    }
+
+    /**
+     * 用户标签变化时在行锁里改写该用户的位图，新用户追加到预留的行里
+     * 只有预留的行数、宽度用完，或者新用户 id 比末尾的小（不能保持升序）时才标记为待重建
+     * @param userId
+     * @param newTagIds
+     */
+    public synchronized void updateUserTags(long userId, int[] newTagIds) {
+        MatchSnapshot currentSnapshot = snapshot;
+        if (currentSnapshot == null) {
+            return;
+        }
+        // 重建期间的修改可能没被新位图读到，重建完后再来一次
+        if (building) {
+            dirty = true;
+        }
+        int maxTagId = newTagIds.length == 0 ? -1 : newTagIds[newTagIds.length - 1];
+        if (maxTagId >= currentSnapshot.words << 6) {
+            dirty = true;
+            return;
+        }
+        int size = currentSnapshot.size;
+        int row = Arrays.binarySearch(currentSnapshot.userIds, 0, size, userId);
+        boolean append = row < 0;
+        if (append) {
+            if (size == currentSnapshot.userIds.length || (size > 0 && userId < currentSnapshot.userIds[size - 1])) {
+                dirty = true;
+                return;
+            }
+            row = size;
+        }
+        StampedLock rowLock = currentSnapshot.rowLock(row);
+        long stamp = rowLock.writeLock();
+        try {
+            setRow(currentSnapshot.bits, currentSnapshot.bitCounts, row, currentSnapshot.words, newTagIds);
+        } finally {
+            rowLock.unlockWrite(stamp);
+        }
+        if (append) {
+            // 先写好这一行再发布 size，读到新 size 的线程一定能看到这一行
+            currentSnapshot.userIds[row] = userId;
+            currentSnapshot.size = size + 1;
+        }
+    }
+
+    public boolean isReady() {
+        return snapshot != null;
+    }
+
+    public boolean isDirty() {
+        return dirty;
+    }
+
+    /**
+     * 按 Jaccard 相似度取和 tagIds 最像的 num 个用户
+     * @param tagIds 查询用户的升序标签 id
+     * @param excludeUserId 排除查询用户自己
+     * @param num
+     * @return 按相似度降序的用户 id
+     */
+    public long[] matchUserIds(int[] tagIds, long excludeUserId, int num) {
+        MatchSnapshot currentSnapshot = snapshot;
+        if (currentSnapshot == null || tagIds.length == 0) {
+            return new TopNHeap(num).pollAllDescending();
+        }
+        MatchQuery matchQuery = new MatchQuery(tagIds, currentSnapshot.words);
+        // 用户按行切片并行打分，每片各自取前 num 个再合并
+        TopNHeap topNHeap = searchTaskExecutor.topN(currentSnapshot.size, num,
+                (from, to, chunkHeap) -> scoreRange(currentSnapshot, matchQuery, excludeUserId, from, to, chunkHeap));
+        return topNHeap.pollAllDescending();
+    }
+
+    /**
+     * 只给候选用户精确打分，取前 num 个
+     * @param tagIds 查询用户的升序标签 id
+     * @param candidateIds 升序候选用户 id
+     * @param excludeUserId
+     * @param num
+     * @return 按相似度降序的用户 id
+     */
+    public long[] rerankUserIds(int[] tagIds, long[] candidateIds, long excludeUserId, int num) {
+        MatchSnapshot currentSnapshot = snapshot;
+        TopNHeap topNHeap = new TopNHeap(num);
+        if (currentSnapshot == null || tagIds.length == 0) {
+            return topNHeap.pollAllDescending();
+        }
+        MatchQuery matchQuery = new MatchQuery(tagIds, currentSnapshot.words);
+        // 候选和位图里的用户 id 都是升序的，二分查找的起点只会往后移
+        int size = currentSnapshot.size;
+        int from = 0;
+        for (long candidateId : candidateIds) {
+            int row = Arrays.binarySearch(currentSnapshot.userIds, from, size, candidateId);
+            if (row < 0) {
+                from = -row - 1;
+                continue;
+            }
+            from = row + 1;
+            scoreRange(currentSnapshot, matchQuery, excludeUserId, row, row + 1, topNHeap);
+        }
+        return topNHeap.pollAllDescending();
+    }
+
+    /**
+     * 给 [from, to) 行的用户打分，放进 topNHeap
+     * 每行先乐观读，期间这一行被 updateUserTags 改写过就加读锁重读，交集和标签数总是同一个版本
+     */
+    private static void scoreRange(MatchSnapshot matchSnapshot, MatchQuery matchQuery, long excludeUserId,
+                                   int from, int to, TopNHeap topNHeap) {
+        for (int row = from; row < to; row++) {
+            StampedLock rowLock = matchSnapshot.rowLock(row);
+            long stamp = rowLock.tryOptimisticRead();
+            int intersection = intersect(matchSnapshot, matchQuery, row);
+            int bitCount = matchSnapshot.bitCounts[row];
+            if (!rowLock.validate(stamp)) {
+                stamp = rowLock.readLock();
+                try {
+                    intersection = intersect(matchSnapshot, matchQuery, row);
+                    bitCount = matchSnapshot.bitCounts[row];
+                } finally {
+                    rowLock.unlockRead(stamp);
+                }
+            }
+            if (intersection == 0 || matchSnapshot.userIds[row] == excludeUserId) {
+                continue;
+            }
+            topNHeap.offer((double) intersection / (matchQuery.bitCount + bitCount - intersection),
+                    matchSnapshot.userIds[row]);
+        }
+    }
+
+    private static int intersect(MatchSnapshot matchSnapshot, MatchQuery matchQuery, int row) {
+        long[] bits = matchSnapshot.bits;
+        int[] queryWordIndexes = matchQuery.wordIndexes;
+        long[] queryWords = matchQuery.words;
+        int offset = row * matchSnapshot.words;
+        int intersection = 0;
+        for (int i = 0; i < queryWordIndexes.length; i++) {
+            intersection += Long.bitCount(queryWords[i] & bits[offset + queryWordIndexes[i]]);
+        }
+        return intersection;
+    }
+
+    private static void setRow(long[] bits, int[] bitCounts, int row, int words, int[] tagIds) {
+        int offset = row * words;
+        Arrays.fill(bits, offset, offset + words, 0L);
+        for (int tagId : tagIds) {
+            bits[offset + (tagId >>> 6)] |= 1L << tagId;
+        }
+        bitCounts[row] = tagIds.length;
+    }
+
+    /**
+     * 某一次重建出来的位图，之后的修改在行锁里原地改写
+     */
+    private static class MatchSnapshot {
+
+        /**
+         * 升序用户 id，下标就是行号；长度是预留的行数，只有前 size 个有效
+         */
+        private final long[] userIds;
+
+        /**
+         * 已使用的行数，追加新用户时最后更新
+         */
+        private volatile int size;
+
+        /**
+         * 第 row 个用户的位图是 bits[row * words, (row + 1) * words)
+         */
+        private final long[] bits;
+
+        private final int[] bitCounts;
+
+        private final int words;
+
+        /**
+         * 第 row 行由 rowLocks[row & (ROW_LOCK_STRIPES - 1)] 保护
+         */
+        private final StampedLock[] rowLocks;
+
+        MatchSnapshot(long[] userIds, int size, long[] bits, int[] bitCounts, int words) {
+            this.userIds = userIds;
+            this.size = size;
+            this.bits = bits;
+            this.bitCounts = bitCounts;
+            this.words = words;
+            this.rowLocks = new StampedLock[ROW_LOCK_STRIPES];
+            for (int i = 0; i < ROW_LOCK_STRIPES; i++) {
+                rowLocks[i] = new StampedLock();
+            }
+        }
+
+        StampedLock rowLock(int row) {
+            return rowLocks[row & (ROW_LOCK_STRIPES - 1)];
+        }
+    }
+
+    /**
+     * 查询用户的位图，只保留非 0 的 long 和它们的下标
+     */
+    private static class MatchQuery {
+
+        private final int[] wordIndexes;
+
+        private final long[] words;
+
+        private final int bitCount;
+
+        MatchQuery(int[] tagIds, int snapshotWords) {
+            int[] indexes = new int[tagIds.length];
+            long[] values = new long[tagIds.length];
+            int size = 0;
+            int count = 0;
+            for (int tagId : tagIds) {
+                int wordIndex = tagId >>> 6;
+                // 位图里还没有的新标签不可能和别人重合，但要算进并集
+                count++;
+                if (wordIndex >= snapshotWords) {
+                    continue;
+                }
+                if (size == 0 || indexes[size - 1] != wordIndex) {
+                    indexes[size++] = wordIndex;
+                }
+                values[size - 1] |= 1L << tagId;
+            }
+            this.wordIndexes = Arrays.copyOf(indexes, size);
+            this.words = Arrays.copyOf(values, size);
+            this.bitCount = count;
+        }
+    }
+}
@@ -3,6 +3,7 @@ package com.ariel.findfriendbackend.mapper;
 import com.ariel.findfriendbackend.model.domain.Team;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
 import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
 
 /**
 * @author Ariel
@@ -13,6 +14,21 @@ import org.apache.ibatis.annotations.Mapper;
 @Mapper
 public interface TeamMapper extends BaseMapper<Team> {
 
+    /**
+     * 加上 num 人后不超过最大人数时人数 + num，判断和修改在一条语句里完成
+     * @param teamId
+     * @param num
+     * @return 1 加入成功，0 名额不够或队伍不存在
+     */
+    int incrMemberCount(@Param("teamId") long teamId, @Param("num") int num);
+
+    /**
+     * 人数大于 minCount 时人数 - 1
+     * @param teamId
+     * @param minCount
+     * @return 1 成功，0 人数不大于 minCount 或队伍不存在
+     */
+    int decrMemberCount(@Param("teamId") long teamId, @Param("minCount") int minCount);
 }
 
 
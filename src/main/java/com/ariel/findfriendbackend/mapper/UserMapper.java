@@ -3,6 +3,10 @@ package com.ariel.findfriendbackend.mapper;
 import com.ariel.findfriendbackend.model.domain.User;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
 import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
+import org.apache.ibatis.session.ResultHandler;
+
+import java.util.List;
 
 
 /**
@@ -13,6 +17,20 @@ import org.apache.ibatis.annotations.Mapper;
 @Mapper
 public interface UserMapper extends BaseMapper<User> {
 
+    /**
+     * 流式读取 id 大于 lastId 的用户 id 和标签，逐行交给 resultHandler 处理，不把整张表读进内存
+     * @param lastId
+     * @param resultHandler
+     */
+    void streamUserTags(@Param("lastId") long lastId, ResultHandler<User> resultHandler);
+
+    /**
+     * 查询 id 大于 lastId 的前 limit 个用户的 id 和标签，按 id 升序
+     * @param lastId
+     * @param limit
+     * @return
+     */
+    List<User> selectUserTags(@Param("lastId") long lastId, @Param("limit") int limit);
 }
 
 
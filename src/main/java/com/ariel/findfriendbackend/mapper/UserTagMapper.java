@@ -0,0 +1,29 @@
+package com.ariel.findfriendbackend.mapper;
+
+import com.ariel.findfriendbackend.model.domain.UserTag;
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+* @author Ariel
+* @description 针对表【user_tag(用户标签关系表)】的数据库操作Mapper
+* @Entity generator.domain.UserTag
+*/
+@Mapper
+public interface UserTagMapper extends BaseMapper<UserTag> {
+
+    /**
+     * 游标分页查询同时拥有所有标签的用户 id，只查 id 大于 lastId 的前 limit 个
+     * @param tagIds
+     * @param tagNum
+     * @param lastId
+     * @param limit
+     * @return
+     */
+    List<Long> selectUserIdsByTagIds(@Param("tagIds") Collection<Long> tagIds, @Param("tagNum") int tagNum,
+                                     @Param("lastId") long lastId, @Param("limit") int limit);
+}
@@ -35,6 +35,11 @@ public class Team implements Serializable {
      */
     private Integer maxNum;
 
+    /**
+     * 已加入的用户数
+     */
+    private Integer memberCount;
+
     /**
      * 过期时间
      */
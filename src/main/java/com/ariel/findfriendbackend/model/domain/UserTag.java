@@ -0,0 +1,40 @@
+package com.ariel.findfriendbackend.model.domain;
+
+import com.baomidou.mybatisplus.annotation.*;
+import lombok.Data;
+
+import java.io.Serializable;
+import java.util.Date;
+
+/**
+ * 用户标签关系表，由 user.tags 同步而来，用于按标签走索引查询用户
+ * @author Ariel
+ * @TableName user_tag
+ */
+@TableName(value ="user_tag")
+@Data
+public class UserTag implements Serializable {
+    /**
+     * id
+     */
+    @TableId(type = IdType.AUTO)
+    private Long id;
+
+    /**
+     * 用户id
+     */
+    private Long userId;
+
+    /**
+     * 标签id
+     */
+    private Long tagId;
+
+    /**
+     * 创建时间
+     */
+    private Date createTime;
+
+    @TableField(exist = false)
+    private static final long serialVersionUID = 1L;
+}
@@ -0,0 +1,48 @@
+package com.ariel.findfriendbackend.model.enums;
+
+/**
+ * 按标签搜索用户时多个标签的匹配方式枚举
+ * @author Ariel
+ */
+public enum TagMatchModeEnum {
+
+    ALL(0,"拥有全部标签"),
+    ANY(1,"拥有任意标签，按命中标签数排序"),
+    WEIGHTED(2,"拥有任意标签，按命中标签的稀有程度加权排序");
+
+    private int value;
+    private String text;
+
+    public static TagMatchModeEnum getEnumByValue(Integer value){
+        if(value==null){
+            return null;
+        }
+        TagMatchModeEnum[] values= TagMatchModeEnum.values();
+        for(TagMatchModeEnum tagMatchModeEnum:values){
+            if(tagMatchModeEnum.getValue()==value){
+                return tagMatchModeEnum;
+            }
+        }
+        return null;
+    }
+    TagMatchModeEnum(int value, String text) {
+        this.value = value;
+        this.text = text;
+    }
+
+    public int getValue() {
+        return value;
+    }
+
+    public void setValue(int value) {
+        this.value = value;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    public void setText(String text) {
+        this.text = text;
+    }
+}
@@ -0,0 +1,49 @@
+package com.ariel.findfriendbackend.model.enums;
+
+/**
+ * 按标签搜索用户的查询方式枚举
+ * @author Ariel
+ */
+public enum TagSearchModeEnum {
+
+    MEMORY(0,"内存倒排索引"),
+    REDIS(1,"Redis 标签索引"),
+    SQL(2,"数据库用户标签关系表"),
+    FUZZY(3,"模糊匹配");
+
+    private int value;
+    private String text;
+
+    public static TagSearchModeEnum getEnumByValue(Integer value){
+        if(value==null){
+            return null;
+        }
+        TagSearchModeEnum[] values= TagSearchModeEnum.values();
+        for(TagSearchModeEnum tagSearchModeEnum:values){
+            if(tagSearchModeEnum.getValue()==value){
+                return tagSearchModeEnum;
+            }
+        }
+        return null;
+    }
+    TagSearchModeEnum(int value, String text) {
+        this.value = value;
+        this.text = text;
+    }
+
+    public int getValue() {
+        return value;
+    }
+
+    public void setValue(int value) {
+        this.value = value;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    public void setText(String text) {
+        this.text = text;
+    }
+}
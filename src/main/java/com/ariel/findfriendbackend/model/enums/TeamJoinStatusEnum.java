@@ -0,0 +1,48 @@
+package com.ariel.findfriendbackend.model.enums;
+
+/**
+ * 排队加入队伍的处理状态枚举
+ * @author Ariel
+ */
+public enum TeamJoinStatusEnum {
+
+    PENDING(0,"排队中"),
+    SUCCESS(1,"加入成功"),
+    FAILED(2,"加入失败");
+
+    private int value;
+    private String text;
+
+    public static TeamJoinStatusEnum getEnumByValue(Integer value){
+        if(value==null){
+            return null;
+        }
+        TeamJoinStatusEnum[] values= TeamJoinStatusEnum.values();
+        for(TeamJoinStatusEnum teamJoinStatusEnum:values){
+            if(teamJoinStatusEnum.getValue()==value){
+                return teamJoinStatusEnum;
+            }
+        }
+        return null;
+    }
+    TeamJoinStatusEnum(int value, String text) {
+        this.value = value;
+        this.text = text;
+    }
+
+    public int getValue() {
+        return value;
+    }
+
+    public void setValue(int value) {
+        this.value = value;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    public void setText(String text) {
+        this.text = text;
+    }
+}
@@ -0,0 +1,40 @@
+package com.ariel.findfriendbackend.model.vo;
+
+import lombok.Data;
+
+import java.io.Serializable;
+
+/**
+ * 排队加入队伍的凭证和处理结果
+ * @author Ariel
+ */
+@Data
+public class TeamJoinTicketVo implements Serializable {
+
+    private static final long serialVersionUID = 6207937512431984013L;
+
+    /**
+     * 凭证
+     */
+    private String ticket;
+
+    /**
+     * 队伍id
+     */
+    private Long teamId;
+
+    /**
+     * 用户id
+     */
+    private Long userId;
+
+    /**
+     * 0 - 排队中，1 - 加入成功，2 - 加入失败
+     */
+    private Integer status;
+
+    /**
+     * 失败原因
+     */
+    private String message;
+}
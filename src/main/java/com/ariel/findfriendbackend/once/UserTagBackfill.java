@@ -0,0 +1,89 @@
+package com.ariel.findfriendbackend.once;
+
+import com.ariel.findfriendbackend.mapper.UserMapper;
+import com.ariel.findfriendbackend.model.domain.User;
+import com.ariel.findfriendbackend.model.domain.UserTag;
+import com.ariel.findfriendbackend.service.TagService;
+import com.ariel.findfriendbackend.service.UserTagService;
+import com.ariel.findfriendbackend.utils.TagUtils;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StopWatch;
+
+import javax.annotation.Resource;
+import java.util.*;
+
+/**
+ * 一次性任务：把已有用户的 tags 回填到 user_tag 关系表
+ * 可以重复执行，每批先删掉这批用户的旧关系再插入
+ * @author Ariel
+ */
+@Component
+@Slf4j
+public class UserTagBackfill {
+
+    private static final int BATCH_SIZE = 1000;
+
+    @Resource
+    private UserMapper userMapper;
+
+    @Resource
+    private TagService tagService;
+
+    @Resource
+    private UserTagService userTagService;
+
+//    @Scheduled(initialDelay = 5000,fixedRate = Long.MAX_VALUE)
+    public void doBackfill() {
+        StopWatch stopWatch = new StopWatch();
+        stopWatch.start();
+        long lastId = 0;
+        long total = 0;
+        while (true) {
+            QueryWrapper<User> queryWrapper = new QueryWrapper<>();
+            queryWrapper.select("id", "tags")
+                    .gt("id", lastId)
+                    .orderByAsc("id")
+                    .last("limit " + BATCH_SIZE);
+            List<User> userList = userMapper.selectList(queryWrapper);
+            if (userList.isEmpty()) {
+                break;
+            }
+            // 一批用户的标签一起查 / 建，减少查询 tag 表的次数
+            Map<Long, Set<String>> userTagsMap = new LinkedHashMap<>();
+            Set<String> allTags = new HashSet<>();
+            for (User user : userList) {
+                Set<String> tags = TagUtils.parseTags(user.getTags());
+                userTagsMap.put(user.getId(), tags);
+                allTags.addAll(tags);
+            }
+            // 历史数据里超长的标签不进标签库，也不建关系
+            allTags.removeIf(tag -> !tagService.isValidTagName(tag));
+            Map<String, Long> tagIdMap = tagService.getOrCreateTagIds(allTags, 0L);
+            List<UserTag> userTagList = new ArrayList<>();
+            userTagsMap.forEach((userId, tags) -> {
+                for (String tag : tags) {
+                    Long tagId = tagIdMap.get(tag);
+                    if (tagId == null) {
+                        continue;
+                    }
+                    UserTag userTag = new UserTag();
+                    userTag.setUserId(userId);
+                    userTag.setTagId(tagId);
+                    userTagList.add(userTag);
+                }
+            });
+            QueryWrapper<UserTag> removeWrapper = new QueryWrapper<>();
+            removeWrapper.in("userId", userTagsMap.keySet());
+            userTagService.remove(removeWrapper);
+            if (!userTagList.isEmpty()) {
+                userTagService.saveBatch(userTagList, BATCH_SIZE);
+            }
+            total += userList.size();
+            lastId = userList.get(userList.size() - 1).getId();
+        }
+        stopWatch.stop();
+        log.info("user tag backfill finished, users={}, time={}ms", total, stopWatch.getTotalTimeMillis());
+    }
+}
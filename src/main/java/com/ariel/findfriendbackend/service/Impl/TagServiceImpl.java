@@ -1,10 +1,29 @@
 package com.ariel.findfriendbackend.service.Impl;
 
+import com.ariel.findfriendbackend.common.ErrorCode;
+import com.ariel.findfriendbackend.exception.BusinessException;
+import com.ariel.findfriendbackend.manager.TagDictionary;
+import com.ariel.findfriendbackend.manager.TagIndexManager;
 import com.ariel.findfriendbackend.mapper.TagMapper;
 import com.ariel.findfriendbackend.model.domain.Tag;
 import com.ariel.findfriendbackend.service.TagService;
+import com.ariel.findfriendbackend.utils.BkTree;
+import com.ariel.findfriendbackend.utils.TagTrie;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.annotation.Order;
+import org.springframework.dao.DuplicateKeyException;
 import org.springframework.stereotype.Service;
+import org.springframework.util.CollectionUtils;
+
+import javax.annotation.Resource;
+import java.util.*;
+
+import static com.ariel.findfriendbackend.contant.UserConstant.MAX_TAG_NAME_LENGTH;
 
 /**
 * @author Ariel
@@ -12,13 +31,164 @@ import org.springframework.stereotype.Service;
 * @createDate 2024-04-24 16:29:29
 */
 @Service
+@Slf4j
 public class TagServiceImpl extends ServiceImpl<TagMapper, Tag>
     implements TagService {
 
+    /**
+     * 自动补全返回的标签数
+     */
+    private static final int SUGGEST_TAG_NUM = 10;
 
+    /**
+     * 前缀最长长度，超过的直接返回空
+     */
+    private static final int MAX_PREFIX_LENGTH = 64;
 
-}
+    /**
+     * 一个标签最多模糊匹配到的标签数
+     */
+    private static final int MAX_FUZZY_TAG_NUM = 10;
+
+    @Resource
+    private TagDictionary tagDictionary;
+
+    @Resource
+    private TagIndexManager tagIndexManager;
+
+    /**
+     * 标签名前缀树，重建时整体替换
+     */
+    private volatile TagTrie tagTrie;
+
+    /**
+     * 标签名 BK 树，重建时整体替换
+     */
+    private volatile BkTree tagBkTree;
 
+    /**
+     * 启动时在标签索引建好之后构建，用倒排表长度作为热度
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    @Order
+    public void initTagTrie() {
+        try {
+            refreshTagTrie();
+            refreshTagBkTree();
+        } catch (Exception e) {
+            log.error("build tag trie error", e);
+        }
+    }
 
+    @Override
+    public Map<String, Long> getTagIdMap(Collection<String> tagNames) {
+        if (CollectionUtils.isEmpty(tagNames)) {
+            return new HashMap<>();
+        }
+        QueryWrapper<Tag> queryWrapper = new QueryWrapper<>();
+        queryWrapper.select("id", "tagName").in("tagName", new HashSet<>(tagNames));
+        Map<String, Long> tagIdMap = new HashMap<>();
+        for (Tag tag : this.list(queryWrapper)) {
+            tagIdMap.put(tag.getTagName(), tag.getId());
+        }
+        return tagIdMap;
+    }
 
+    @Override
+    public Map<String, Long> getOrCreateTagIds(Collection<String> tagNames, long userId) {
+        Map<String, Long> tagIdMap = getTagIdMap(tagNames);
+        for (String tagName : new HashSet<>(tagNames)) {
+            if (tagIdMap.containsKey(tagName)) {
+                continue;
+            }
+            if (!isValidTagName(tagName)) {
+                throw new BusinessException(ErrorCode.PARAMS_ERROR, "标签名长度不能超过" + MAX_TAG_NAME_LENGTH);
+            }
+            Tag tag = new Tag();
+            tag.setTagName(tagName);
+            tag.setUserID(userId);
+            tag.setIsParent(0);
+            try {
+                this.save(tag);
+                tagIdMap.put(tagName, tag.getId());
+                tagDictionary.register(tagName, tag.getId());
+            } catch (DuplicateKeyException e) {
+                // 其他请求同时创建了同名标签，直接用它的
+                tagIdMap.putAll(getTagIdMap(Collections.singleton(tagName)));
+            }
+        }
+        return tagIdMap;
+    }
 
+    @Override
+    public boolean isValidTagName(String tagName) {
+        return StringUtils.isNotBlank(tagName) && tagName.length() <= MAX_TAG_NAME_LENGTH;
+    }
+
+    @Override
+    public List<String> suggestTags(String prefix) {
+        TagTrie currentTagTrie = tagTrie;
+        if (StringUtils.isBlank(prefix) || prefix.length() > MAX_PREFIX_LENGTH || currentTagTrie == null) {
+            return new ArrayList<>();
+        }
+        int[] ids = currentTagTrie.search(prefix.trim().toLowerCase(Locale.ROOT));
+        List<String> tagNames = new ArrayList<>(ids.length);
+        for (int id : ids) {
+            tagNames.add(tagDictionary.getName(id));
+        }
+        return tagNames;
+    }
+
+    @Override
+    public void refreshTagTrie() {
+        int tagNum = tagDictionary.size();
+        String[] keys = new String[tagNum];
+        int[] ids = new int[tagNum];
+        int[] scores = new int[tagNum];
+        for (int id = 0; id < tagNum; id++) {
+            keys[id] = tagDictionary.getName(id).toLowerCase(Locale.ROOT);
+            ids[id] = id;
+            scores[id] = tagIndexManager.getTagUserCount(id);
+        }
+        tagTrie = TagTrie.build(keys, ids, scores, SUGGEST_TAG_NUM);
+        log.info("tag trie built, tags={}", tagNum);
+    }
+
+    @Override
+    public List<String> getFuzzyTagNames(String tagName) {
+        BkTree currentTagBkTree = tagBkTree;
+        if (StringUtils.isBlank(tagName) || currentTagBkTree == null) {
+            return new ArrayList<>();
+        }
+        String key = tagName.trim().toLowerCase(Locale.ROOT);
+        int[] ids = currentTagBkTree.search(key, getMaxEditDistance(key));
+        List<String> tagNames = new ArrayList<>(Math.min(ids.length, MAX_FUZZY_TAG_NUM));
+        for (int i = 0; i < ids.length && tagNames.size() < MAX_FUZZY_TAG_NUM; i++) {
+            tagNames.add(tagDictionary.getName(ids[i]));
+        }
+        return tagNames;
+    }
+
+    @Override
+    public void refreshTagBkTree() {
+        int tagNum = tagDictionary.size();
+        BkTree newTagBkTree = new BkTree();
+        for (int id = 0; id < tagNum; id++) {
+            newTagBkTree.add(tagDictionary.getName(id).toLowerCase(Locale.ROOT), id);
+        }
+        tagBkTree = newTagBkTree;
+        log.info("tag bk tree built, tags={}", tagNum);
+    }
+
+    /**
+     * 允许的编辑距离随长度增加：1~2 个字只忽略大小写，3~5 个字错 1 个，再长错 2 个
+     * @param key
+     * @return
+     */
+    private static int getMaxEditDistance(String key) {
+        if (key.length() <= 2) {
+            return 0;
+        }
+        return key.length() <= 5 ? 1 : 2;
+    }
+}
@@ -3,6 +3,10 @@ package com.ariel.findfriendbackend.service.Impl;
 import com.ariel.findfriendbackend.common.ErrorCode;
 import com.ariel.findfriendbackend.dto.TeamQuery;
 import com.ariel.findfriendbackend.exception.BusinessException;
+import com.ariel.findfriendbackend.manager.IdBloomFilterManager;
+import com.ariel.findfriendbackend.manager.TeamJoinQueue;
+import com.ariel.findfriendbackend.manager.TwoLevelCache;
+import com.ariel.findfriendbackend.manager.TwoLevelCacheManager;
 import com.ariel.findfriendbackend.mapper.TeamMapper;
 import com.ariel.findfriendbackend.model.domain.Team;
 import com.ariel.findfriendbackend.model.domain.User;
@@ -11,25 +15,42 @@ import com.ariel.findfriendbackend.model.enums.TeamStatusEnum;
 import com.ariel.findfriendbackend.model.request.TeamJoinRequest;
 import com.ariel.findfriendbackend.model.request.TeamQuitRequest;
 import com.ariel.findfriendbackend.model.request.TeamUpdateRequest;
+import com.ariel.findfriendbackend.model.vo.TeamJoinTicketVo;
 import com.ariel.findfriendbackend.model.vo.TeamUserVo;
 import com.ariel.findfriendbackend.model.vo.UserVo;
 import com.ariel.findfriendbackend.service.TeamService;
 import com.ariel.findfriendbackend.service.UserService;
 import com.ariel.findfriendbackend.service.UserTeamService;
+import com.ariel.findfriendbackend.utils.TransactionUtils;
 import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
-import lombok.Synchronized;
+import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.collections4.CollectionUtils;
 import org.apache.commons.lang3.StringUtils;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
 import org.springframework.beans.BeanUtils;
+import org.springframework.dao.DuplicateKeyException;
 import org.springframework.stereotype.Service;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
 
 /**
 * @author Ariel
@@ -37,6 +58,7 @@ import java.util.Optional;
 * @createDate 2024-05-13 21:27:38
 */
 @Service
+@Slf4j
 public class TeamServiceImpl extends ServiceImpl<TeamMapper, Team>
         implements TeamService {
 
@@ -46,13 +68,70 @@ public class TeamServiceImpl extends ServiceImpl<TeamMapper, Team>
     @Resource
     private UserTeamService userTeamService;
 
+    @Resource
+    private TwoLevelCacheManager twoLevelCacheManager;
+
+    @Resource
+    private IdBloomFilterManager idBloomFilterManager;
+
+    @Resource
+    private RedissonClient redissonClient;
+
+    @Resource
+    private TransactionTemplate transactionTemplate;
+
+    @Resource
+    private TeamJoinQueue teamJoinQueue;
+
+    /**
+     * 加入队伍的锁，参数：队伍 id、用户 id
+     */
+    private static final String TEAM_JOIN_LOCK_KEY = "friend:team:join:team:%s:lock";
+
+    private static final String USER_JOIN_LOCK_KEY = "friend:team:join:user:%s:lock";
+
+    /**
+     * 等加入队伍锁的最长时间
+     */
+    private static final long JOIN_LOCK_WAIT_MILLIS = 500;
+
+    /**
+     * 创建队伍的锁，参数：用户 id
+     */
+    private static final String USER_ADD_TEAM_LOCK_KEY = "friend:team:add:user:%s:lock";
+
+    private static final long ADD_TEAM_LOCK_WAIT_MILLIS = 1000;
+
+    /**
+     * 本节点内创建队伍的分段锁数量，按用户 id 取模
+     */
+    private static final int ADD_TEAM_STRIPE_NUM = 64;
+
+    private final ReentrantLock[] addTeamStripeLocks = newStripeLocks(ADD_TEAM_STRIPE_NUM);
+
+    /**
+     * 队伍详情缓存，参数：队伍 id
+     */
+    private static final String TEAM_KEY = "friend:team:%s";
+
+    /**
+     * 队伍详情在 Redis 里的过期时间
+     */
+    private static final long TEAM_TTL_MINUTES = 30;
+
+    private TwoLevelCache<Team> teamCache;
+
+    @PostConstruct
+    public void initCache() {
+        teamCache = twoLevelCacheManager.getCache("team", () -> TimeUnit.MINUTES.toMillis(TEAM_TTL_MINUTES)
+                + ThreadLocalRandom.current().nextLong(TimeUnit.MINUTES.toMillis(5)));
+        teamJoinQueue.start(this::processJoinBatch);
+    }
 
-    @Override
-    @Transactional(rollbackFor = Exception.class)
-    @Synchronized
     /**
      * 创建队伍
      */
+    @Override
     public long addTeam(Team team, User loginUser) {
         // 1. 请求参数是否为空？
         if (team == null) {
@@ -97,8 +176,44 @@ public class TeamServiceImpl extends ServiceImpl<TeamMapper, Team>
         if (new Date().after(expireTime)) {
             throw new BusinessException(ErrorCode.PARAMS_ERROR, "超时时间 > 当前时间");
         }
+        // 7. 同一个用户的创建请求串行执行：本节点内先按用户分段加锁，少占用分布式锁，再用分布式锁保证多个节点之间也不会超过上限
+        //    不同用户互不影响，可以并行创建
+        ReentrantLock stripeLock = addTeamStripeLocks[(int) (Math.abs(userId) % ADD_TEAM_STRIPE_NUM)];
+        RLock lock = redissonClient.getLock(String.format(USER_ADD_TEAM_LOCK_KEY, userId));
+        boolean stripeLocked = false;
+        boolean locked = false;
+        Long teamId;
+        try {
+            stripeLocked = stripeLock.tryLock(ADD_TEAM_LOCK_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+            locked = stripeLocked && lock.tryLock(ADD_TEAM_LOCK_WAIT_MILLIS, -1, TimeUnit.MILLISECONDS);
+            if (!locked) {
+                throw new BusinessException(ErrorCode.SYSTEM_ERROR, "操作太频繁，请稍后再试");
+            }
+            // 事务在锁里提交，释放锁之后下一个请求一定能数到这次创建的队伍
+            teamId = transactionTemplate.execute(transactionStatus -> doAddTeam(team, userId));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new BusinessException(ErrorCode.SYSTEM_ERROR);
+        } finally {
+            if (locked && lock.isHeldByCurrentThread()) {
+                lock.unlock();
+            }
+            if (stripeLocked) {
+                stripeLock.unlock();
+            }
+        }
+        idBloomFilterManager.addTeam(teamId);
+        return teamId;
+    }
+
+    /**
+     * 校验用户最多创建 5 个队伍，插入队伍和队长的关系，需要在事务里调用
+     * @param team
+     * @param userId
+     * @return 队伍 id
+     */
+    private Long doAddTeam(Team team, long userId) {
         // 7. 校验用户最多创建 5 个队伍
-        // todo 有 bug，可能同时创建 100 个队伍
         QueryWrapper<Team> queryWrapper = new QueryWrapper<>();
         queryWrapper.eq("userId", userId);
         long hasTeamNum = this.count(queryWrapper);
@@ -108,6 +223,8 @@ public class TeamServiceImpl extends ServiceImpl<TeamMapper, Team>
         // 8. 插入队伍信息到队伍表
         team.setId(null);
         team.setUserId(userId);
+        // 队长自己算一个
+        team.setMemberCount(1);
         boolean result = this.save(team);
         Long teamId = team.getId();
         if (!result || teamId == null) {
@@ -129,10 +246,11 @@ public class TeamServiceImpl extends ServiceImpl<TeamMapper, Team>
      * 队伍查询展示
      * @param teamQuery
      * @param isAdmin
+     * @param loginUser
      * @return
      */
     @Override
-    public List<TeamUserVo> listTeams(TeamQuery teamQuery, boolean isAdmin) {
+    public List<TeamUserVo> listTeams(TeamQuery teamQuery, boolean isAdmin, User loginUser) {
         QueryWrapper<Team> queryWrapper = new QueryWrapper<>();
         // 组合查询条件
         if (teamQuery != null) {
@@ -184,16 +302,25 @@ public class TeamServiceImpl extends ServiceImpl<TeamMapper, Team>
         if (CollectionUtils.isEmpty(teamList)) {
             return new ArrayList<>();
         }
+        // 关联查询创建人的用户信息，所有创建人一次查出来，不在循环里逐个查
+        Set<Long> creatorIds = teamList.stream().map(Team::getUserId).filter(Objects::nonNull)
+                .collect(Collectors.toSet());
+        Map<Long, User> creatorMap = new HashMap<>(creatorIds.size() * 2);
+        if (!creatorIds.isEmpty()) {
+            for (User user : userService.listByIds(creatorIds)) {
+                creatorMap.put(user.getId(), user);
+            }
+        }
         List<TeamUserVo> teamUserVOList = new ArrayList<>();
-        // 关联查询创建人的用户信息
         for (Team team : teamList) {
             Long userId = team.getUserId();
             if (userId == null) {
                 continue;
             }
-            User user = userService.getById(userId);
+            User user = creatorMap.get(userId);
             TeamUserVo teamUserVO = new TeamUserVo();
             BeanUtils.copyProperties(team, teamUserVO);
+            teamUserVO.setHasJoinNum(Optional.ofNullable(team.getMemberCount()).orElse(0));
             // 脱敏用户信息
             if (user != null) {
                 UserVo userVO = new UserVo();
@@ -202,9 +329,33 @@ public class TeamServiceImpl extends ServiceImpl<TeamMapper, Team>
             }
             teamUserVOList.add(teamUserVO);
         }
+        fillHasJoin(teamUserVOList, loginUser);
         return teamUserVOList;
     }
 
+    /**
+     * 填充当前用户是否已加入，一次 IN 查出
+     * @param teamUserVOList
+     * @param loginUser 未登录时为 null，hasJoin 都是 false
+     */
+    private void fillHasJoin(List<TeamUserVo> teamUserVOList, User loginUser) {
+        if (teamUserVOList.isEmpty() || loginUser == null) {
+            return;
+        }
+        List<Long> teamIds = teamUserVOList.stream().map(TeamUserVo::getId).collect(Collectors.toList());
+        QueryWrapper<UserTeam> joinQueryWrapper = new QueryWrapper<>();
+        joinQueryWrapper.select("teamId")
+                .eq("userId", loginUser.getId())
+                .in("teamId", teamIds);
+        Set<Long> joinedTeamIds = new HashSet<>();
+        for (UserTeam userTeam : userTeamService.list(joinQueryWrapper)) {
+            joinedTeamIds.add(userTeam.getTeamId());
+        }
+        for (TeamUserVo teamUserVO : teamUserVOList) {
+            teamUserVO.setHasJoin(joinedTeamIds.contains(teamUserVO.getId()));
+        }
+    }
+
     /**
      * 只有登录用户才能使用
      * @param teamUpdateRequest
@@ -219,10 +370,7 @@ public class TeamServiceImpl extends ServiceImpl<TeamMapper, Team>
         if(id==null || id<=0){
             throw new BusinessException(ErrorCode.PARAMS_ERROR);
         }
-        Team oldTeam =this.getById(id);
-        if(oldTeam==null){
-            throw new BusinessException(ErrorCode.NULL_ERROR,"队伍不存在");
-        }
+        Team oldTeam =getTeamById(id);
         //只有登录的用户或者管理员才能更新队伍信息
         if(!oldTeam.getUserId().equals(loginUser.getId()) || !userService.isAdmin(loginUser)){
             throw new BusinessException(ErrorCode.NO_AUTH);
@@ -237,6 +385,7 @@ public class TeamServiceImpl extends ServiceImpl<TeamMapper, Team>
         Team updateTeam =new Team();
         BeanUtils.copyProperties(teamUpdateRequest,updateTeam);
         boolean result=this.updateById(updateTeam);
+        evictTeam(id);
         return result;
     }
 
@@ -248,6 +397,59 @@ public class TeamServiceImpl extends ServiceImpl<TeamMapper, Team>
      */
     @Override
     public boolean joinTeam(TeamJoinRequest teamJoinRequest,User loginUser) {
+        Team team=checkJoinable(teamJoinRequest);
+        Long teamId=team.getId();
+        Long userId=loginUser.getId();
+        //同一个队伍、同一个用户的加入请求串行执行，拿不到锁的请求等一小会就返回，不在这里排长队
+        RLock lock=redissonClient.getMultiLock(redissonClient.getLock(String.format(TEAM_JOIN_LOCK_KEY,teamId)),
+                redissonClient.getLock(String.format(USER_JOIN_LOCK_KEY,userId)));
+        boolean locked;
+        try {
+            locked=lock.tryLock(JOIN_LOCK_WAIT_MILLIS,-1,TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new BusinessException(ErrorCode.SYSTEM_ERROR);
+        }
+        if(!locked){
+            throw new BusinessException(ErrorCode.SYSTEM_ERROR,"加入的人太多了，请稍后再试");
+        }
+        try {
+            //事务在锁里提交，释放锁之后别的请求一定能查到这次加入
+            transactionTemplate.executeWithoutResult(transactionStatus -> doJoinTeam(teamId,userId));
+        } finally {
+            lock.unlock();
+        }
+        evictTeam(teamId);
+        return true;
+    }
+
+    @Override
+    public String joinTeamAsync(TeamJoinRequest teamJoinRequest, User loginUser) {
+        Team team = checkJoinable(teamJoinRequest);
+        return teamJoinQueue.submit(team.getId(), loginUser.getId());
+    }
+
+    @Override
+    public TeamJoinTicketVo getJoinTicket(String ticket, User loginUser) {
+        if (StringUtils.isBlank(ticket)) {
+            throw new BusinessException(ErrorCode.PARAMS_ERROR);
+        }
+        TeamJoinTicketVo ticketVo = teamJoinQueue.getTicket(ticket);
+        if (ticketVo == null) {
+            throw new BusinessException(ErrorCode.NULL_ERROR, "凭证不存在或已过期");
+        }
+        if (!ticketVo.getUserId().equals(loginUser.getId())) {
+            throw new BusinessException(ErrorCode.NO_AUTH);
+        }
+        return ticketVo;
+    }
+
+    /**
+     * 校验队伍能否加入：队伍存在、没过期、不是私人队伍、加密队伍的密码正确
+     * @param teamJoinRequest
+     * @return 要加入的队伍
+     */
+    private Team checkJoinable(TeamJoinRequest teamJoinRequest) {
         if(teamJoinRequest ==null){
             throw new BusinessException(ErrorCode.PARAMS_ERROR);
         }
@@ -264,13 +466,22 @@ public class TeamServiceImpl extends ServiceImpl<TeamMapper, Team>
         if(TeamStatusEnum.PRIVATE.equals(statusEnum)){
             throw new BusinessException(ErrorCode.NULL_ERROR,"禁止加入私人队伍");
         }
+        //加密队伍才校验密码
         String password= teamJoinRequest.getPassword();
-        if(StringUtils.isBlank(password) && !password.equals(team.getPassword())){
+        if(TeamStatusEnum.SECRET.equals(statusEnum) && (StringUtils.isBlank(password) || !password.equals(team.getPassword()))){
             throw new BusinessException(ErrorCode.NO_AUTH,"队伍密码错误");
         }
+        return team;
+    }
+
+    /**
+     * 校验用户加入的队伍数、是否重复加入，占一个名额并写入关系表，需要在事务里调用
+     * @param teamId
+     * @param userId
+     */
+    private void doJoinTeam(long teamId,long userId){
         //当前用户加入的队伍数量
-        Long userId=loginUser.getId();
-        QueryWrapper userTeamQueryWrapper=new QueryWrapper<>();
+        QueryWrapper<UserTeam> userTeamQueryWrapper=new QueryWrapper<>();
         userTeamQueryWrapper.eq("userId",userId);
         long hasJoinNum=userTeamService.count(userTeamQueryWrapper);
         if(hasJoinNum>5){
@@ -284,9 +495,8 @@ public class TeamServiceImpl extends ServiceImpl<TeamMapper, Team>
         if(isUserJoined>0){
             throw new BusinessException(ErrorCode.PARAMS_ERROR,"不能重复加入同一个队伍");
         }
-        //已加入队伍的用户数量,在用户队伍关系表查队伍的数量
-        long teamHasUser = this.getHasUser(teamId);
-        if(teamHasUser>team.getMaxNum()){
+        //队伍没满时已加入人数 + 1，判断和修改是一条 update，并发加入也不会超员
+        if(this.baseMapper.incrMemberCount(teamId,1)==0){
             throw new BusinessException(ErrorCode.PARAMS_ERROR,"队伍人满");
         }
         //修改队伍信息
@@ -294,20 +504,165 @@ public class TeamServiceImpl extends ServiceImpl<TeamMapper, Team>
         userTeam.setUserId(userId);
         userTeam.setTeamId(teamId);
         userTeam.setJoinTime(new Date());
+        boolean result;
+        try {
+            result=userTeamService.save(userTeam);
+        } catch (DuplicateKeyException e) {
+            //关系表 (teamId, userId) 唯一，并发重复加入时这里兜底，事务回滚把人数改回去
+            throw new BusinessException(ErrorCode.PARAMS_ERROR,"不能重复加入同一个队伍");
+        }
+        if(!result){
+            throw new BusinessException(ErrorCode.SYSTEM_ERROR,"加入队伍失败");
+        }
+    }
 
-        return userTeamService.save(userTeam);
+    /**
+     * 处理排队加入的一批请求：先给涉及的用户加锁（和同步加入是同一把锁），别的节点上的队列、同步加入
+     * 都不会同时给同一个用户加入队伍；拿到锁之后再查数据、写库，事务提交后才释放锁
+     * @param batch
+     */
+    private void processJoinBatch(List<TeamJoinQueue.JoinTask> batch) {
+        Map<Long, RLock> userLockMap = new HashMap<>(batch.size() * 2);
+        try {
+            List<TeamJoinQueue.JoinTask> lockedTasks = lockJoinUsers(batch, userLockMap);
+            if (!lockedTasks.isEmpty()) {
+                doProcessJoinBatch(lockedTasks);
+            }
+        } finally {
+            for (RLock lock : userLockMap.values()) {
+                if (lock.isHeldByCurrentThread()) {
+                    lock.unlock();
+                }
+            }
+        }
     }
 
     /**
-     * 队伍有多少用户
-     * @param teamId
-     * @return
+     * 按用户 id 从小到大逐个加锁，拿不到锁的用户的请求直接失败
+     * @param batch
+     * @param userLockMap 拿到的锁，由调用方释放
+     * @return 拿到锁的请求
      */
-    private long getHasUser(Long teamId) {
-        QueryWrapper userTeamQueryWrapper =new QueryWrapper<>();
-        userTeamQueryWrapper.eq("teamId", teamId);
-        long teamHasUser=userTeamService.count(userTeamQueryWrapper);
-        return teamHasUser;
+    private List<TeamJoinQueue.JoinTask> lockJoinUsers(List<TeamJoinQueue.JoinTask> batch, Map<Long, RLock> userLockMap) {
+        Set<Long> userIds = new TreeSet<>();
+        for (TeamJoinQueue.JoinTask joinTask : batch) {
+            userIds.add(joinTask.getUserId());
+        }
+        for (Long userId : userIds) {
+            RLock lock = redissonClient.getLock(String.format(USER_JOIN_LOCK_KEY, userId));
+            try {
+                if (lock.tryLock(JOIN_LOCK_WAIT_MILLIS, -1, TimeUnit.MILLISECONDS)) {
+                    userLockMap.put(userId, lock);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        List<TeamJoinQueue.JoinTask> lockedTasks = new ArrayList<>(batch.size());
+        for (TeamJoinQueue.JoinTask joinTask : batch) {
+            if (userLockMap.containsKey(joinTask.getUserId())) {
+                lockedTasks.add(joinTask);
+            } else {
+                joinTask.fail("加入的人太多了，请稍后再试");
+            }
+        }
+        return lockedTasks;
+    }
+
+    /**
+     * 批量查队伍和用户已加入的队伍，在内存里按到达顺序校验、分配名额，
+     * 每个队伍一条 update 加上人数，关系表一次批量插入；批量写失败（人满、重复加入等）时退回逐个加入
+     * 需要已经拿到这批用户的锁
+     * @param batch
+     */
+    private void doProcessJoinBatch(List<TeamJoinQueue.JoinTask> batch) {
+        Set<Long> teamIds = new HashSet<>();
+        Set<Long> userIds = new HashSet<>();
+        for (TeamJoinQueue.JoinTask joinTask : batch) {
+            teamIds.add(joinTask.getTeamId());
+            userIds.add(joinTask.getUserId());
+        }
+        Map<Long, Team> teamMap = new HashMap<>(teamIds.size() * 2);
+        for (Team team : this.listByIds(teamIds)) {
+            teamMap.put(team.getId(), team);
+        }
+        //用户已加入的队伍
+        QueryWrapper<UserTeam> userTeamQueryWrapper = new QueryWrapper<>();
+        userTeamQueryWrapper.select("userId", "teamId").in("userId", userIds);
+        Map<Long, Set<Long>> joinedTeamMap = new HashMap<>(userIds.size() * 2);
+        for (UserTeam userTeam : userTeamService.list(userTeamQueryWrapper)) {
+            joinedTeamMap.computeIfAbsent(userTeam.getUserId(), k -> new HashSet<>()).add(userTeam.getTeamId());
+        }
+        Map<Long, Integer> remainMap = new HashMap<>(teamIds.size() * 2);
+        Map<Long, Integer> acceptedNumMap = new HashMap<>(teamIds.size() * 2);
+        List<TeamJoinQueue.JoinTask> acceptedTasks = new ArrayList<>(batch.size());
+        Date now = new Date();
+        for (TeamJoinQueue.JoinTask joinTask : batch) {
+            Team team = teamMap.get(joinTask.getTeamId());
+            if (team == null) {
+                joinTask.fail("队伍不存在");
+                continue;
+            }
+            if (team.getExpireTime() != null && team.getExpireTime().before(now)) {
+                joinTask.fail("队伍已经过期");
+                continue;
+            }
+            Set<Long> joinedTeamIds = joinedTeamMap.computeIfAbsent(joinTask.getUserId(), k -> new HashSet<>());
+            if (joinedTeamIds.size() > 5) {
+                joinTask.fail("最多加入5个队伍");
+                continue;
+            }
+            if (joinedTeamIds.contains(team.getId())) {
+                joinTask.fail("不能重复加入同一个队伍");
+                continue;
+            }
+            int remain = remainMap.computeIfAbsent(team.getId(),
+                    k -> team.getMaxNum() - Optional.ofNullable(team.getMemberCount()).orElse(0));
+            if (remain <= 0) {
+                joinTask.fail("队伍人满");
+                continue;
+            }
+            remainMap.put(team.getId(), remain - 1);
+            acceptedNumMap.merge(team.getId(), 1, Integer::sum);
+            joinedTeamIds.add(team.getId());
+            acceptedTasks.add(joinTask);
+        }
+        if (acceptedTasks.isEmpty()) {
+            return;
+        }
+        try {
+            transactionTemplate.executeWithoutResult(transactionStatus -> {
+                for (Map.Entry<Long, Integer> entry : acceptedNumMap.entrySet()) {
+                    //同步加入、别的节点的队列可能同时占了名额，名额不够时整批回滚
+                    if (this.baseMapper.incrMemberCount(entry.getKey(), entry.getValue()) == 0) {
+                        throw new BusinessException(ErrorCode.PARAMS_ERROR, "队伍人满");
+                    }
+                }
+                List<UserTeam> userTeamList = new ArrayList<>(acceptedTasks.size());
+                for (TeamJoinQueue.JoinTask joinTask : acceptedTasks) {
+                    UserTeam userTeam = new UserTeam();
+                    userTeam.setUserId(joinTask.getUserId());
+                    userTeam.setTeamId(joinTask.getTeamId());
+                    userTeam.setJoinTime(now);
+                    userTeamList.add(userTeam);
+                }
+                userTeamService.saveBatch(userTeamList);
+            });
+            acceptedTasks.forEach(TeamJoinQueue.JoinTask::succeed);
+        } catch (Exception e) {
+            log.warn("team join batch failed, join one by one, size={}", acceptedTasks.size(), e);
+            for (TeamJoinQueue.JoinTask joinTask : acceptedTasks) {
+                try {
+                    transactionTemplate.executeWithoutResult(
+                            transactionStatus -> doJoinTeam(joinTask.getTeamId(), joinTask.getUserId()));
+                    joinTask.succeed();
+                } catch (BusinessException businessException) {
+                    joinTask.fail(businessException.getMessage());
+                }
+            }
+        }
+        acceptedNumMap.keySet().forEach(this::evictTeam);
     }
 
     @Override
@@ -329,8 +684,8 @@ public class TeamServiceImpl extends ServiceImpl<TeamMapper, Team>
         if(count == 0){
             throw new BusinessException(ErrorCode.PARAMS_ERROR,"没加入该队伍");
         }
-        //队伍只有1人，解散
-        if(getHasUser(teamId)==1){
+        //人数大于 1 时人数 - 1；没改到说明队伍只有1人，解散
+        if(this.baseMapper.decrMemberCount(teamId, 1)==0){
             //删除队伍和所有加入队伍的关系，删除关系也是 复用 335的代码然后直接在最后返回的时候删除关系
             this.removeById(teamId);
         }else {
@@ -356,26 +711,54 @@ public class TeamServiceImpl extends ServiceImpl<TeamMapper, Team>
                 }
             }
         }
+        evictTeam(teamId);
         //移除关系 335行
         return userTeamService.remove(queryWrapper);
     }
 
     /**
-     * 获取队伍，并校验队伍是否存在
+     * 获取队伍，并校验队伍是否存在；布隆过滤器判断不存在的 id 直接拒绝，再查两级缓存
      * @param teamId
      * @return
      */
-    private Team getTeamById(Long teamId) {
+    @Override
+    public Team getTeamById(Long teamId) {
         if(teamId ==null|| teamId <=0){
             throw new BusinessException(ErrorCode.NULL_ERROR,"");
         }
-        Team team=this.getById(teamId);
+        if (!idBloomFilterManager.mightContainTeam(teamId)) {
+            throw new BusinessException(ErrorCode.NULL_ERROR,"队伍不存在");
+        }
+        String redisKey = String.format(TEAM_KEY, teamId);
+        Team team = teamCache.get(redisKey);
+        if (team != null) {
+            return team;
+        }
+        team=this.getById(teamId);
         if(team==null){
+            idBloomFilterManager.recordTeamFalsePositive();
             throw new BusinessException(ErrorCode.NULL_ERROR,"队伍不存在");
         }
+        teamCache.fill(redisKey, team);
         return team;
     }
 
+    private static ReentrantLock[] newStripeLocks(int stripeNum) {
+        ReentrantLock[] locks = new ReentrantLock[stripeNum];
+        for (int i = 0; i < stripeNum; i++) {
+            locks[i] = new ReentrantLock();
+        }
+        return locks;
+    }
+
+    /**
+     * 队伍信息修改后删除所有节点上的缓存；在事务里调用时等提交后再删，提交前删的话并发查询会把旧数据读回缓存
+     * @param teamId
+     */
+    private void evictTeam(long teamId) {
+        TransactionUtils.afterCommit(() -> teamCache.evict(String.format(TEAM_KEY, teamId)));
+    }
+
     @Override
     @Transactional(rollbackFor = Exception.class)
     public boolean deleteTeam(long id, User loginUser) {
@@ -394,7 +777,9 @@ public class TeamServiceImpl extends ServiceImpl<TeamMapper, Team>
             throw new BusinessException(ErrorCode.SYSTEM_ERROR, "删除队伍关联信息失败");
         }
         // 删除队伍
-        return this.removeById(teamId);
+        boolean removed = this.removeById(teamId);
+        evictTeam(teamId);
+        return removed;
     }
 }
 
@@ -1,32 +1,72 @@
 package com.ariel.findfriendbackend.service.Impl;
+import com.ariel.findfriendbackend.common.CursorPage;
 import com.ariel.findfriendbackend.common.ErrorCode;
 import com.ariel.findfriendbackend.contant.UserConstant;
 import com.ariel.findfriendbackend.exception.BusinessException;
+import com.ariel.findfriendbackend.manager.IdBloomFilterManager;
+import com.ariel.findfriendbackend.manager.MinHashLshManager;
+import com.ariel.findfriendbackend.manager.RedisTagIndexManager;
+import com.ariel.findfriendbackend.manager.TagCooccurrenceManager;
+import com.ariel.findfriendbackend.manager.TagDictionary;
+import com.ariel.findfriendbackend.manager.TagHierarchyManager;
+import com.ariel.findfriendbackend.manager.TagIndexManager;
+import com.ariel.findfriendbackend.manager.TagPopularityManager;
+import com.ariel.findfriendbackend.manager.TwoLevelCache;
+import com.ariel.findfriendbackend.manager.TwoLevelCacheManager;
+import com.ariel.findfriendbackend.manager.UserMatchManager;
 import com.ariel.findfriendbackend.mapper.UserMapper;
+import com.ariel.findfriendbackend.mapper.UserTagMapper;
 import com.ariel.findfriendbackend.model.domain.User;
+import com.ariel.findfriendbackend.model.enums.TagMatchModeEnum;
 import com.ariel.findfriendbackend.model.vo.TagVo;
+import com.ariel.findfriendbackend.service.TagService;
+import com.ariel.findfriendbackend.service.UserTagService;
+import com.ariel.findfriendbackend.utils.CacheUtils;
+import com.ariel.findfriendbackend.utils.LongArrayList;
+import com.ariel.findfriendbackend.utils.TagUtils;
+import com.ariel.findfriendbackend.utils.TransactionUtils;
+import com.ariel.findfriendbackend.utils.TopNHeap;
 import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
-import com.google.gson.Gson;
-import com.google.gson.reflect.TypeToken;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.StringUtils;
+import org.redisson.api.RBatch;
+import org.redisson.api.RFuture;
+import org.redisson.api.RListAsync;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.redisson.client.codec.LongCodec;
 import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.data.redis.core.ValueOperations;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 import org.springframework.util.CollectionUtils;
 import org.springframework.util.DigestUtils;
 
+import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
 import javax.servlet.http.HttpServletRequest;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
 import com.ariel.findfriendbackend.service.UserService;
 
+import static com.ariel.findfriendbackend.contant.UserConstant.MAX_TAG_NAME_LENGTH;
+import static com.ariel.findfriendbackend.contant.UserConstant.MAX_USER_TAG_NUM;
+import static com.ariel.findfriendbackend.contant.UserConstant.RECOMMEND_LIST_KEY;
+import static com.ariel.findfriendbackend.contant.UserConstant.RECOMMEND_PAGE_KEY;
+import static com.ariel.findfriendbackend.contant.UserConstant.RECOMMEND_PAGE_TTL_JITTER_MILLIS;
+import static com.ariel.findfriendbackend.contant.UserConstant.RECOMMEND_PAGE_TTL_MILLIS;
 import static com.ariel.findfriendbackend.contant.UserConstant.USER_LOGIN_STATE;
+import static com.ariel.findfriendbackend.contant.UserConstant.USER_PROFILE_KEY;
 
 /**
 * @author Ariel
@@ -43,11 +83,107 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User>
 
     @Resource
     private RedisTemplate<String, Object> redisTemplate;
+
+    @Resource
+    private RedissonClient redissonClient;
+
+    @Resource
+    private TagIndexManager tagIndexManager;
+
+    @Resource
+    private RedisTagIndexManager redisTagIndexManager;
+
+    @Resource
+    private TagPopularityManager tagPopularityManager;
+
+    @Resource
+    private TagCooccurrenceManager tagCooccurrenceManager;
+
+    @Resource
+    private TagDictionary tagDictionary;
+
+    @Resource
+    private TagHierarchyManager tagHierarchyManager;
+
+    @Resource
+    private UserMatchManager userMatchManager;
+
+    @Resource
+    private MinHashLshManager minHashLshManager;
+
+    @Resource
+    private UserTagMapper userTagMapper;
+
+    @Resource
+    private UserTagService userTagService;
+
+    @Resource
+    private TagService tagService;
+
+    @Resource
+    private TwoLevelCacheManager twoLevelCacheManager;
+
+    @Resource
+    private IdBloomFilterManager idBloomFilterManager;
+
+    /**
+     * 通用推荐分页，key 是 RECOMMEND_PAGE_KEY
+     */
+    private TwoLevelCache<Page<User>> recommendPageCache;
+
+    /**
+     * 推荐列表里用的脱敏用户资料快照，key 是 USER_PROFILE_KEY
+     */
+    private TwoLevelCache<User> userProfileCache;
     /**
      * 盐值，混淆密码
      */
     private static final String SALT = "ariel";
 
+    /**
+     * 按 id 回表时每批查询的数量
+     */
+    private static final int LOAD_BATCH_SIZE = 1000;
+
+    /**
+     * 按标签搜索时每页最多返回的用户数
+     */
+    private static final int MAX_TAG_SEARCH_PAGE_SIZE = 100;
+
+    /**
+     * 索引不可用、分页扫描用户表时每批读的行数
+     */
+    private static final int TAG_SCAN_BATCH_SIZE = 1000;
+
+    /**
+     * 推荐标签的数量
+     */
+    private static final int RECOMMEND_TAG_NUM = 20;
+
+    /**
+     * 用户资料快照的过期时间
+     */
+    private static final long USER_PROFILE_TTL_HOURS = 24;
+
+    /**
+     * 缓存失效时等待别的请求重建的最长时间，只等一次
+     */
+    private static final long RECOMMEND_LOAD_WAIT_MILLIS = 3000;
+
+    /**
+     * 正在重建的通用推荐分页缓存，key -> 重建结果
+     */
+    private final Map<String, CompletableFuture<Page<User>>> recommendLoadingMap = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void initCache() {
+        // 推荐分页变化慢、读得多，一级缓存只留最近的几百页
+        recommendPageCache = twoLevelCacheManager.getCache("recommendPage", 500, 30,
+                () -> CacheUtils.jitterTtlMillis(RECOMMEND_PAGE_TTL_MILLIS, RECOMMEND_PAGE_TTL_JITTER_MILLIS));
+        userProfileCache = twoLevelCacheManager.getCache("userProfile",
+                () -> TimeUnit.HOURS.toMillis(USER_PROFILE_TTL_HOURS));
+    }
+
 
     /**
      * 判断当前用户是否为管理员，需要通过请求获取当前用户信息
@@ -115,6 +251,8 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User>
         if (!saveResult) {
             return -1;
         }
+        idBloomFilterManager.addUser(user.getId());
+        syncUserTags(user.getId(), null, user.getTags());
         return user.getId();
     }
 
@@ -210,67 +348,245 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User>
 
     /**
      * 通过查询标签，得到用户
+     * 不分页，返回所有命中的用户；接口走下面游标分页的重载方法
      * @param tagNameList
      * @return
      */
     @Override
-    // todo 不是应该遍历所有数据吗，那数据量大的时候从内存查询性能？？？而且这样分页也不行
     public List<User> getUserByTags(List<String> tagNameList){
         if(CollectionUtils.isEmpty(tagNameList)){
             throw new BusinessException(ErrorCode.PARAMS_ERROR);
         }
-        //进行性能优化是不断调试的，以下用内存来查询
-       QueryWrapper queryWrapper=new QueryWrapper<>();
-        //1.先查询所有用户
-           List<User> userList=userMapper.selectList(queryWrapper);
-        //startTime =System.currentTimeMillis();
-        //序列化
-        Gson gson =new Gson();
-        //2.在内存中判断是否包含要求的标签，内存查询很灵活
-        return userList.stream().filter(user->{
-            //如果用并行流parallelStream有缺点，面试会问。这个并行流有一个默认的公共线程池，如果有利用数据库查询的量数据的也用这个线程池查询
-            //那么线程池的线程库可能就都被用光了，当前操作就无法执行
-            //for(User user:userList){ stream().filter()语法糖来代替foreach遍历
-                String tagsStr=user.getTags();
-                //校验，从数据库取出来可能为空
-                if(StringUtils.isBlank(tagsStr)){
-                    return false;
-                }
-                //拿到的tags是json字符串，我们要使用就要转化为对象(反序列化)
-            Set<String> tempTagNameSet = gson.fromJson(tagsStr, new TypeToken<Set<String>>(){}.getType());
-                //如果tempTagNameSet为空，用orElse赋值，利用Optional消除if分支
-             tempTagNameSet=Optional.ofNullable(tempTagNameSet).orElse(new HashSet<>()) ;
-            //使用集合要记得判空，用集合我们就可以用O（1）的时间复杂度立即判断集合是否包含某个标签
-                for(String tagName:tagNameList){
-                    if(!tempTagNameSet.contains(tagName)){
-                        //返回false被过滤掉
-                        return false;
-                    }
-                }
-                return true;
-            //}
-        }).map(this::getSafetyUser).collect(Collectors.toList());
-        //return userList.stream().map(this::getSafetyUser).collect(Collectors.toList());
-      // log.info("memory query time="+(System.currentTimeMillis()-startTime));
-        //return userList;
+        //倒排索引已经建好，直接对倒排表求交集，只回表查命中的用户
+        if (tagIndexManager.isReady()) {
+            long[] userIds = tagIndexManager.searchUserIds(tagNameList);
+            return listSafetyUsersByIds(userIds);
+        }
+        //索引还没建好时流式扫描，只读 id 和 tags，边读边过滤，最后只回表命中的用户
+        long[] userIds = streamUserIdsByTags(tagNameList, 0, Integer.MAX_VALUE);
+        return listSafetyUsersByIds(userIds);
     }
 
+    /**
+     * 通过内存倒排索引游标分页查询，索引还没建好时流式扫描
+     * @param tagNameList
+     * @param lastId
+     * @param pageSize
+     * @return
+     */
     @Override
-    public List<User> getUserByTagsSql(List<String> tagNameList){
-        if(CollectionUtils.isEmpty(tagNameList)){
+    public CursorPage<User> getUserByTags(List<String> tagNameList, long lastId, int pageSize) {
+        checkTagSearchParams(tagNameList, pageSize);
+        long[] userIds;
+        //多取一个，用来判断是否还有下一页
+        if (tagIndexManager.isReady()) {
+            userIds = tagIndexManager.searchUserIds(tagNameList, lastId, pageSize + 1);
+        } else {
+            userIds = streamUserIdsByTags(tagNameList, lastId, pageSize + 1);
+        }
+        return toCursorPage(userIds, pageSize);
+    }
+
+    /**
+     * 通过 Redis 标签索引查询，多个节点共用，交集按查询缓存，每页只取一段再回表
+     * @param tagNameList
+     * @param lastId
+     * @param pageSize
+     * @return
+     */
+    @Override
+    public CursorPage<User> getUserByTagsRedis(List<String> tagNameList, long lastId, int pageSize) {
+        checkTagSearchParams(tagNameList, pageSize);
+        //多取一个，用来判断是否还有下一页
+        long[] userIds = redisTagIndexManager.searchUserIds(tagNameList, lastId, pageSize + 1);
+        //Redis 索引还没建好时走本节点的索引或扫表
+        if (userIds == null) {
+            return getUserByTags(tagNameList, lastId, pageSize);
+        }
+        return toCursorPage(userIds, pageSize);
+    }
+
+    /**
+     * 通过 user_tag 关系表查询，group by having count 保证同时拥有所有标签，按 userId 游标分页
+     * @param tagNameList
+     * @param lastId
+     * @param pageSize
+     * @return
+     */
+    @Override
+    public CursorPage<User> getUserByTagsSql(List<String> tagNameList, long lastId, int pageSize){
+        checkTagSearchParams(tagNameList, pageSize);
+        Set<String> tagNameSet = new HashSet<>(tagNameList);
+        Map<String, Long> tagIdMap = tagService.getTagIdMap(tagNameSet);
+        //有标签不存在，不可能有用户同时拥有所有标签
+        if (tagIdMap.size() < tagNameSet.size()) {
+            return CursorPage.of(new ArrayList<>(), null, false);
+        }
+        List<Long> userIdList = userTagMapper.selectUserIdsByTagIds(tagIdMap.values(), tagIdMap.size(),
+                lastId, pageSize + 1);
+        long[] userIds = userIdList.stream().mapToLong(Long::longValue).toArray();
+        return toCursorPage(userIds, pageSize);
+    }
+
+    /**
+     * 模糊搜索：每个标签先在 BK 树里找到编辑距离相近的已知标签，组内取并集、组间取交集
+     * @param tagNameList
+     * @param lastId
+     * @param pageSize
+     * @return
+     */
+    @Override
+    public CursorPage<User> getUserByTagsFuzzy(List<String> tagNameList, long lastId, int pageSize) {
+        checkTagSearchParams(tagNameList, pageSize);
+        List<Set<String>> tagGroups = new ArrayList<>(tagNameList.size());
+        for (String tagName : new HashSet<>(tagNameList)) {
+            Set<String> tagGroup = new HashSet<>(tagService.getFuzzyTagNames(tagName));
+            //BK 树还没建好或没有相近的标签时按原标签精确匹配
+            tagGroup.add(tagName);
+            tagGroups.add(tagGroup);
+        }
+        long[] userIds;
+        if (tagIndexManager.isReady()) {
+            userIds = tagIndexManager.searchUserIdsByGroups(tagGroups, lastId, pageSize + 1);
+        } else {
+            userIds = streamUserIdsByTagGroups(tagGroups, lastId, pageSize + 1);
+        }
+        return toCursorPage(userIds, pageSize);
+    }
+
+    /**
+     * 按命中标签的数量或权重排序，只返回前 num 个，不分页
+     * @param tagNameList
+     * @param matchMode
+     * @param num
+     * @return
+     */
+    @Override
+    public List<User> getUserByTagsRanked(List<String> tagNameList, TagMatchModeEnum matchMode, int num) {
+        checkTagSearchParams(tagNameList, num);
+        boolean weighted = TagMatchModeEnum.WEIGHTED.equals(matchMode);
+        if (tagIndexManager.isReady()) {
+            return listSafetyUsersByIds(tagIndexManager.searchTopUserIds(tagNameList, weighted, num));
+        }
+        //索引还没建好时流式扫描，拿不到每个标签的使用人数，统一按命中标签数打分
+        List<Set<String>> tagGroups = new ArrayList<>(tagNameList.size());
+        for (String tagName : new HashSet<>(tagNameList)) {
+            tagGroups.add(tagHierarchyManager.expandTagName(tagName));
+        }
+        TopNHeap topNHeap = new TopNHeap(num);
+        userMapper.streamUserTags(0, resultContext -> {
+            User user = resultContext.getResultObject();
+            Set<String> userTags = TagUtils.parseTags(user.getTags());
+            int score = 0;
+            for (Set<String> tagGroup : tagGroups) {
+                if (!Collections.disjoint(userTags, tagGroup)) {
+                    score++;
+                }
+            }
+            if (score > 0) {
+                topNHeap.offer(score, user.getId());
+            }
+        });
+        return listSafetyUsersByIds(topNHeap.pollAllDescending());
+    }
+
+    private void checkTagSearchParams(List<String> tagNameList, int pageSize) {
+        if (CollectionUtils.isEmpty(tagNameList)) {
             throw new BusinessException(ErrorCode.PARAMS_ERROR);
         }
-        QueryWrapper<User> queryWrapper=new QueryWrapper();
-        //拼接and查询
-        //like '%aa%' and like '%bb%'
-        for(String tagName:tagNameList){
-            queryWrapper=queryWrapper.like("tags",tagName);
+        if (pageSize <= 0 || pageSize > MAX_TAG_SEARCH_PAGE_SIZE) {
+            throw new BusinessException(ErrorCode.PARAMS_ERROR, "每页最多" + MAX_TAG_SEARCH_PAGE_SIZE + "条");
+        }
+    }
+
+    /**
+     * 索引不可用时流式扫描用户表，逐行判断标签，凑够 limit 个就停
+     * 不用 parallelStream：并行流用的是公共线程池，如果别的地方也用它查数据库，线程可能被占满，当前操作就无法执行
+     * @param tagNameList
+     * @param lastId
+     * @param limit
+     * @return
+     */
+    private long[] streamUserIdsByTags(List<String> tagNameList, long lastId, int limit) {
+        List<Set<String>> tagGroups = new ArrayList<>(tagNameList.size());
+        for (String tagName : new HashSet<>(tagNameList)) {
+            tagGroups.add(Collections.singleton(tagName));
+        }
+        return streamUserIdsByTagGroups(tagGroups, lastId, limit);
+    }
+
+    /**
+     * 扫描用户表，用户在每组标签里都有一个标签才算命中，凑够 limit 个就停
+     * limit 为 Integer.MAX_VALUE 时整表流式读；分页时按 id 分批读，流式读提前停下时驱动仍会把剩下的行全部读完
+     * @param tagGroups
+     * @param lastId
+     * @param limit
+     * @return
+     */
+    private long[] streamUserIdsByTagGroups(List<Set<String>> tagGroups, long lastId, int limit) {
+        //父标签展开成它和所有后代标签
+        List<Set<String>> expandedTagGroups = new ArrayList<>(tagGroups.size());
+        for (Set<String> tagGroup : tagGroups) {
+            Set<String> expandedTagGroup = new HashSet<>();
+            for (String tagName : tagGroup) {
+                expandedTagGroup.addAll(tagHierarchyManager.expandTagName(tagName));
+            }
+            expandedTagGroups.add(expandedTagGroup);
+        }
+        LongArrayList userIds = new LongArrayList();
+        if (limit == Integer.MAX_VALUE) {
+            userMapper.streamUserTags(lastId, resultContext -> {
+                User user = resultContext.getResultObject();
+                //拿到的tags是json字符串，反序列化成集合后O(1)判断是否包含要求的标签
+                if (matchTagGroups(TagUtils.parseTags(user.getTags()), expandedTagGroups)) {
+                    userIds.add(user.getId());
+                }
+            });
+            return userIds.toArray();
         }
-       List<User> userList= userMapper.selectList(queryWrapper);
-        return userList.stream().map(this::getSafetyUser).collect(Collectors.toList());
+        long batchLastId = lastId;
+        while (userIds.size() < limit) {
+            List<User> userList = userMapper.selectUserTags(batchLastId, TAG_SCAN_BATCH_SIZE);
+            for (User user : userList) {
+                if (matchTagGroups(TagUtils.parseTags(user.getTags()), expandedTagGroups)) {
+                    userIds.add(user.getId());
+                    if (userIds.size() >= limit) {
+                        break;
+                    }
+                }
+            }
+            if (userList.size() < TAG_SCAN_BATCH_SIZE) {
+                break;
+            }
+            batchLastId = userList.get(userList.size() - 1).getId();
+        }
+        return userIds.toArray();
+    }
+
+    private static boolean matchTagGroups(Set<String> userTags, List<Set<String>> tagGroups) {
+        for (Set<String> tagGroup : tagGroups) {
+            if (Collections.disjoint(userTags, tagGroup)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 多查出来的一个 id 只用来判断是否还有下一页，不回表
+     * @param userIds
+     * @param pageSize
+     * @return
+     */
+    private CursorPage<User> toCursorPage(long[] userIds, int pageSize) {
+        boolean hasMore = userIds.length > pageSize;
+        long[] pageUserIds = hasMore ? Arrays.copyOf(userIds, pageSize) : userIds;
+        Long nextCursor = pageUserIds.length > 0 ? pageUserIds[pageUserIds.length - 1] : null;
+        return CursorPage.of(listSafetyUsersByIds(pageUserIds), nextCursor, hasMore);
     }
 
     @Override
+    @Transactional(rollbackFor = Exception.class)
     public int updateUser(User user, User loginUser) {
         long userId = user.getId();
         if (userId <= 0) {
@@ -284,6 +600,18 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User>
         if (user.getPhone() != null && user.getPhone().length() != 11) {
             throw new BusinessException(ErrorCode.PARAMS_ERROR, "电话长度过长或过短");
         }
+        // 新标签会写进公共标签库，限制个数和长度
+        if (user.getTags() != null) {
+            Set<String> tags = TagUtils.parseTags(user.getTags());
+            if (tags.size() > MAX_USER_TAG_NUM) {
+                throw new BusinessException(ErrorCode.PARAMS_ERROR, "标签不能超过" + MAX_USER_TAG_NUM + "个");
+            }
+            for (String tag : tags) {
+                if (!tagService.isValidTagName(tag)) {
+                    throw new BusinessException(ErrorCode.PARAMS_ERROR, "标签名长度不能超过" + MAX_TAG_NAME_LENGTH);
+                }
+            }
+        }
         // 如果是管理员，允许更新任意用户
         // 如果不是管理员，只允许更新当前（自己的）信息
         log.info("loginUser:" + loginUser);
@@ -292,11 +620,73 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User>
             throw new BusinessException(ErrorCode.NO_AUTH);
         }
 
+        // 布隆过滤器判断不存在的 id 不用查库
+        if (!idBloomFilterManager.mightContainUser(userId)) {
+            throw new BusinessException(ErrorCode.NULL_ERROR, "用户不存在");
+        }
         User oldUser = userMapper.selectById(userId);
         if (oldUser == null) {
+            idBloomFilterManager.recordUserFalsePositive();
             throw new BusinessException(ErrorCode.NULL_ERROR);
         }
-        return userMapper.updateById(user);
+        int result = userMapper.updateById(user);
+        // tags 为空说明这次没有修改标签
+        if (result > 0 && user.getTags() != null) {
+            syncUserTags(userId, oldUser.getTags(), user.getTags());
+        }
+        if (result > 0) {
+            // 资料变了，提交后删掉推荐列表里用的快照，下次读的时候回表
+            TransactionUtils.afterCommit(() -> userProfileCache.evict(String.format(USER_PROFILE_KEY, userId)));
+        }
+        return result;
+    }
+
+    /**
+     * 用户标签写入后，同步维护标签索引
+     * @param userId
+     * @param oldTagsJson
+     * @param newTagsJson
+     */
+    private void syncUserTags(long userId, String oldTagsJson, String newTagsJson) {
+        Set<String> oldTags = TagUtils.parseTags(oldTagsJson);
+        Set<String> newTags = TagUtils.parseTags(newTagsJson);
+        if (oldTags.equals(newTags)) {
+            return;
+        }
+        // 关系表和用户表在同一个事务里；Redis 和内存索引回滚不了，等事务提交后再更新
+        userTagService.syncUserTags(userId, newTags);
+        TransactionUtils.afterCommit(() -> {
+            redisTagIndexManager.updateUserTags(userId, oldTags, newTags);
+            tagPopularityManager.updateUserTags(userId, oldTags, newTags);
+            tagIndexManager.updateUserTags(userId, oldTags, newTags);
+        });
+    }
+
+    /**
+     * 按 id 分批回表查询用户并脱敏，返回顺序和传入的 id 顺序一致
+     * @param userIds
+     * @return
+     */
+    private List<User> listSafetyUsersByIds(long[] userIds) {
+        Map<Long, User> userMap = new HashMap<>(userIds.length * 2);
+        for (int from = 0; from < userIds.length; from += LOAD_BATCH_SIZE) {
+            int to = Math.min(from + LOAD_BATCH_SIZE, userIds.length);
+            List<Long> idList = new ArrayList<>(to - from);
+            for (int i = from; i < to; i++) {
+                idList.add(userIds[i]);
+            }
+            for (User user : userMapper.selectBatchIds(idList)) {
+                userMap.put(user.getId(), user);
+            }
+        }
+        List<User> safetyUserList = new ArrayList<>(userMap.size());
+        for (long userId : userIds) {
+            User user = userMap.get(userId);
+            if (user != null) {
+                safetyUserList.add(getSafetyUser(user));
+            }
+        }
+        return safetyUserList;
     }
 
     @Override
@@ -328,81 +718,264 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User>
         ValueOperations<String, Object> valueOperations = redisTemplate.opsForValue();
         User currentUser = (User) valueOperations.get(redisKey);
         User userById = this.getById(currentUser.getId());
-        String OldTags = userById.getTags();
-        QueryWrapper<User> queryWrapper = new QueryWrapper<>();
-        queryWrapper.isNotNull("tags");
-        List<User> users = this.list(queryWrapper);
-        Map<String, Integer> map = new HashMap<>();
-        Gson gson = new Gson();
-        log.info(OldTags);
-        List<String> oldTags = gson.fromJson(OldTags, new TypeToken<List<String>>() {
-        }.getType());
-        log.info(oldTags.toString() + "");
-        for (User user : users) {
-            String Tags = user.getTags();
-            List<String> list = Arrays.asList(Tags);
-            if (list == null) {
-                continue;
+        List<String> oldTags = TagUtils.parseTagList(userById.getTags());
+        log.info("oldTags:" + oldTags);
+        //先推荐和自己的标签经常一起出现的标签，不够的再用热门标签补齐
+        List<String> RecommendTags = new ArrayList<>(RECOMMEND_TAG_NUM);
+        if (tagCooccurrenceManager.isReady()) {
+            int[] ownTagIds = tagIndexManager.getUserTagIds(userById.getId());
+            RecommendTags.addAll(tagCooccurrenceManager.suggestTags(ownTagIds, RECOMMEND_TAG_NUM));
+        }
+        if (RecommendTags.size() < RECOMMEND_TAG_NUM) {
+            Set<String> excludeTags = new HashSet<>(oldTags);
+            excludeTags.addAll(RecommendTags);
+            RecommendTags.addAll(getPopularTags(RECOMMEND_TAG_NUM - RecommendTags.size(), excludeTags));
+        }
+        log.info("RecommendTags:"+RecommendTags);
+        tagVo.setOldTags(oldTags);
+        tagVo.setRecommendTags(RecommendTags);
+        return tagVo;
+    }
+
+    @Override
+    public List<User> matchUsers(long num, User loginUser) {
+        if (num <= 0 || num > MAX_TAG_SEARCH_PAGE_SIZE) {
+            throw new BusinessException(ErrorCode.PARAMS_ERROR, "匹配数量不合法");
+        }
+        long userId = loginUser.getId();
+        if (userMatchManager.isReady()) {
+            int[] tagIds = tagIndexManager.getUserTagIds(userId);
+            //LSH 只取和自己签名有一段相同的候选用户，再用位图精确打分
+            if (minHashLshManager.isReady()) {
+                long[] candidateIds = minHashLshManager.getCandidateUserIds(tagIds);
+                return listSafetyUsersByIds(userMatchManager.rerankUserIds(tagIds, candidateIds, userId, (int) num));
             }
-            List<String> tagList = gson.fromJson(Tags, new TypeToken<List<String>>() {
-            }.getType());
-            if (tagList != null) {
-                //命中一次tag+1
-                for (String tag : tagList) {
-                    if (map.get(tag) == null) {
-                        map.put(tag, 1);
-                    } else {
-                        map.put(tag, map.get(tag) + 1);
-                    }
+            //位图 + popcount 打分，只回表查前 num 个
+            return listSafetyUsersByIds(userMatchManager.matchUserIds(tagIds, userId, (int) num));
+        }
+        //位图还没建好时流式扫描，逐个计算标签集合的 Jaccard 相似度
+        User user = this.getById(userId);
+        Set<String> ownTags = user == null ? Collections.emptySet() : TagUtils.parseTags(user.getTags());
+        if (ownTags.isEmpty()) {
+            return new ArrayList<>();
+        }
+        TopNHeap topNHeap = new TopNHeap((int) num);
+        userMapper.streamUserTags(0, resultContext -> {
+            User other = resultContext.getResultObject();
+            if (other.getId() == userId) {
+                return;
+            }
+            Set<String> otherTags = TagUtils.parseTags(other.getTags());
+            int intersection = 0;
+            for (String tag : otherTags) {
+                if (ownTags.contains(tag)) {
+                    intersection++;
                 }
             }
-        }
-        Map<Integer, List<String>> Map = new TreeMap<>(new Comparator<Integer>() {
-            @Override
-            public int compare(Integer key1, Integer key2) {
-                //降序排序
-                return key2.compareTo(key1);
+            if (intersection > 0) {
+                topNHeap.offer((double) intersection / (ownTags.size() + otherTags.size() - intersection),
+                        other.getId());
             }
         });
-        map.forEach((value, key) -> {
-            if (Map.size() == 0) {
-                Map.put(key, Arrays.asList(value));
-            } else if (Map.get(key) == null) {
-                Map.put(key, Arrays.asList(value));
-            } else {
-                List<String> list = new ArrayList(Map.get(key));
-                list.add(value);
-                Map.put(key, list);
+        return listSafetyUsersByIds(topNHeap.pollAllDescending());
+    }
+
+    @Override
+    public Page<User> recommendUsers(long pageSize, long pageNum, User loginUser) {
+        if (pageSize <= 0 || pageSize > MAX_TAG_SEARCH_PAGE_SIZE || pageNum <= 0) {
+            throw new BusinessException(ErrorCode.PARAMS_ERROR);
+        }
+        //有批处理算好的推荐列表时，一次往返取出列表长度和这一页的 id，再批量取用户资料
+        try {
+            //页码太大时下标超出 int，转成负数后 LRANGE 会从列表末尾取，这种页直接当作超出列表，只查长度
+            boolean inRange = pageNum - 1 <= (Integer.MAX_VALUE - pageSize) / pageSize;
+            RBatch batch = redissonClient.createBatch();
+            RListAsync<Long> recommendList = batch.getList(String.format(RECOMMEND_LIST_KEY, loginUser.getId()),
+                    LongCodec.INSTANCE);
+            RFuture<Integer> sizeFuture = recommendList.sizeAsync();
+            RFuture<List<Long>> rangeFuture = null;
+            if (inRange) {
+                int from = (int) ((pageNum - 1) * pageSize);
+                rangeFuture = recommendList.rangeAsync(from, (int) (from + pageSize - 1));
             }
-        });
-        Set<String> set = new HashSet<>();
-        for (Map.Entry<Integer, List<String>> entry : Map.entrySet()) {
-
-            log.info("set.size():"+set.size());
-            List<String> value = entry.getValue();
-            if (oldTags == null) {
-                for (String tag : value) {
-                    set.add(tag);
-                    if (set.size() >= 20) {
-                        break;
-                    }
-                }
+            batch.execute();
+            int total = sizeFuture.getNow();
+            if (total > 0) {
+                Page<User> userPage = new Page<>(pageNum, pageSize, total);
+                userPage.setRecords(rangeFuture == null ? new ArrayList<>() : listUserProfiles(rangeFuture.getNow()));
+                return userPage;
             }
-            for (String tag : value) {
-                if (!oldTags.contains(tag)) {
-                    set.add(tag);
-                    if (set.size() >= 20) {
-                        break;
-                    }
+        } catch (Exception e) {
+            log.error("get recommend list error", e);
+        }
+        //还没有推荐列表（新用户、没有标签），返回通用分页
+        return getRecommendPage(loginUser.getUserRole(), pageNum, pageSize);
+    }
+
+    /**
+     * 通用推荐分页，如果有缓存，就直接读缓存，否则读db
+     * 缓存失效时同一个 key 只有一个请求去查库：同一节点内的请求合并成一个 future，节点之间用分布式锁
+     * @param userRole
+     * @param pageNum
+     * @param pageSize
+     * @return
+     */
+    private Page<User> getRecommendPage(int userRole, long pageNum, long pageSize) {
+        String redisKey = String.format(RECOMMEND_PAGE_KEY, userRole, pageNum, pageSize);
+        Page<User> userPage = recommendPageCache.get(redisKey);
+        if (userPage != null) {
+            return userPage;
+        }
+        CompletableFuture<Page<User>> future = new CompletableFuture<>();
+        CompletableFuture<Page<User>> loadingFuture = recommendLoadingMap.putIfAbsent(redisKey, future);
+        if (loadingFuture != null) {
+            //已经有请求在查了，等它的结果；等太久就直接查库返回，不再去等分布式锁
+            try {
+                return loadingFuture.get(RECOMMEND_LOAD_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new BusinessException(ErrorCode.SYSTEM_ERROR);
+            } catch (ExecutionException | TimeoutException e) {
+                log.warn("wait recommend page loading error, key={}", redisKey);
+                return queryRecommendPage(pageNum, pageSize);
+            }
+        }
+        try {
+            userPage = loadRecommendPage(redisKey, pageNum, pageSize);
+            future.complete(userPage);
+            return userPage;
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            recommendLoadingMap.remove(redisKey, future);
+        }
+    }
+
+    private Page<User> loadRecommendPage(String redisKey, long pageNum, long pageSize) {
+        RLock lock = redissonClient.getLock(redisKey + ":lock");
+        boolean locked = false;
+        try {
+            locked = lock.tryLock(RECOMMEND_LOAD_WAIT_MILLIS, -1, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            //拿到锁后再查一次缓存，别的节点可能已经写好了
+            if (locked) {
+                Page<User> userPage = recommendPageCache.get(redisKey);
+                if (userPage != null) {
+                    return userPage;
                 }
             }
+            Page<User> userPage = queryRecommendPage(pageNum, pageSize);
+            //写缓存,即使写失败了也可以通过读取数据库返回给页面
+            recommendPageCache.fill(redisKey, userPage);
+            return userPage;
+        } finally {
+            if (locked && lock.isHeldByCurrentThread()) {
+                lock.unlock();
+            }
         }
+    }
 
-        List<String> RecommendTags = new ArrayList<String>(set);
-        log.info("RecommendTags:"+RecommendTags);
-        tagVo.setOldTags(oldTags);
-        tagVo.setRecommendTags(RecommendTags);
-        return tagVo;
+    private Page<User> queryRecommendPage(long pageNum, long pageSize) {
+        QueryWrapper<User> queryWrapper = new QueryWrapper<>();
+        //分页,当前是第几条数据公式：(pageNum-1)*pageSize
+        Page<User> userPage = this.page(new Page<>(pageNum, pageSize), queryWrapper);
+        userPage.setRecords(userPage.getRecords().stream().map(this::getSafetyUser).collect(Collectors.toList()));
+        return userPage;
+    }
+
+    /**
+     * 按 id 批量取脱敏后的用户资料，先查两级缓存（Redis 部分一次 MGET），没命中的再回表，快照一次 pipeline 写回
+     * @param userIds
+     * @return 和 userIds 顺序一致
+     */
+    private List<User> listUserProfiles(List<Long> userIds) {
+        if (userIds.isEmpty()) {
+            return new ArrayList<>();
+        }
+        List<String> keys = new ArrayList<>(userIds.size());
+        for (Long userId : userIds) {
+            keys.add(String.format(USER_PROFILE_KEY, userId));
+        }
+        Map<String, User> snapshots = userProfileCache.getAll(keys);
+        Map<Long, User> userMap = new HashMap<>(userIds.size() * 2);
+        LongArrayList missIds = new LongArrayList();
+        for (int i = 0; i < userIds.size(); i++) {
+            User snapshot = snapshots.get(keys.get(i));
+            if (snapshot != null) {
+                userMap.put(userIds.get(i), snapshot);
+            } else {
+                missIds.add(userIds.get(i));
+            }
+        }
+        if (!missIds.isEmpty()) {
+            Map<String, User> missSnapshots = new HashMap<>(missIds.size() * 2);
+            for (User user : listSafetyUsersByIds(missIds.toArray())) {
+                userMap.put(user.getId(), user);
+                missSnapshots.put(String.format(USER_PROFILE_KEY, user.getId()), user);
+            }
+            //没命中的快照一次 pipeline 写回
+            userProfileCache.fillAll(missSnapshots);
+        }
+        List<User> userList = new ArrayList<>(userIds.size());
+        for (Long userId : userIds) {
+            User user = userMap.get(userId);
+            if (user != null) {
+                userList.add(user);
+            }
+        }
+        return userList;
+    }
+
+    /**
+     * 取最热门且不在 excludeTags 里的标签
+     * @param limit
+     * @param excludeTags
+     * @return
+     */
+    private List<String> getPopularTags(int limit, Set<String> excludeTags) {
+        List<String> popularTags;
+        try {
+            //Redis 里增量维护的标签热度，只读前 K 个
+            popularTags = tagPopularityManager.getPopularTags(limit, excludeTags);
+        } catch (Exception e) {
+            log.error("get tag popularity error", e);
+            popularTags = null;
+        }
+        if (popularTags != null && !popularTags.isEmpty()) {
+            return popularTags;
+        }
+        if (tagIndexManager.isReady()) {
+            //倒排表的长度就是标签的使用人数，只比较 int，不用遍历用户、解析 json
+            return tagIndexManager.getPopularTags(limit, tagDictionary.getIds(excludeTags));
+        }
+        return countPopularTags(limit, excludeTags);
+    }
+
+    /**
+     * 索引还没建好时流式扫描用户表统计标签出现频率，返回最热门且不在 excludeTags 里的标签
+     * @param limit
+     * @param ownTags
+     * @return
+     */
+    private List<String> countPopularTags(int limit, Set<String> ownTags) {
+        Map<String, Integer> tagCountMap = new HashMap<>();
+        userMapper.streamUserTags(0, resultContext -> {
+            //命中一次tag+1
+            for (String tag : TagUtils.parseTags(resultContext.getResultObject().getTags())) {
+                tagCountMap.merge(tag, 1, Integer::sum);
+            }
+        });
+        //按出现次数降序排序
+        return tagCountMap.entrySet().stream()
+                .filter(entry -> !ownTags.contains(entry.getKey()))
+                .sorted(Map.Entry.<String, Integer>comparingByValue().reversed())
+                .limit(limit)
+                .map(Map.Entry::getKey)
+                .collect(Collectors.toList());
     }
 
 
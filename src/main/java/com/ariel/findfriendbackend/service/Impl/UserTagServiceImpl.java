@@ -0,0 +1,63 @@
+package com.ariel.findfriendbackend.service.Impl;
+
+import com.ariel.findfriendbackend.mapper.UserTagMapper;
+import com.ariel.findfriendbackend.model.domain.UserTag;
+import com.ariel.findfriendbackend.service.TagService;
+import com.ariel.findfriendbackend.service.UserTagService;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.Resource;
+import java.util.*;
+
+/**
+* @author Ariel
+* @description 针对表【user_tag(用户标签关系表)】的数据库操作Service实现
+*/
+@Service
+public class UserTagServiceImpl extends ServiceImpl<UserTagMapper, UserTag>
+    implements UserTagService {
+
+    @Resource
+    private TagService tagService;
+
+    /**
+     * 只删除去掉的标签、插入新增的标签，没变的关系不动
+     * @param userId
+     * @param tagNames
+     */
+    @Override
+    public void syncUserTags(long userId, Set<String> tagNames) {
+        Set<Long> newTagIds = new HashSet<>(tagService.getOrCreateTagIds(tagNames, userId).values());
+        QueryWrapper<UserTag> queryWrapper = new QueryWrapper<>();
+        queryWrapper.select("tagId").eq("userId", userId);
+        Set<Long> oldTagIds = new HashSet<>();
+        for (UserTag userTag : this.list(queryWrapper)) {
+            oldTagIds.add(userTag.getTagId());
+        }
+        Set<Long> removedTagIds = new HashSet<>(oldTagIds);
+        removedTagIds.removeAll(newTagIds);
+        if (!removedTagIds.isEmpty()) {
+            QueryWrapper<UserTag> removeWrapper = new QueryWrapper<>();
+            removeWrapper.eq("userId", userId).in("tagId", removedTagIds);
+            this.remove(removeWrapper);
+        }
+        List<UserTag> addedList = new ArrayList<>();
+        for (Long tagId : newTagIds) {
+            if (!oldTagIds.contains(tagId)) {
+                UserTag userTag = new UserTag();
+                userTag.setUserId(userId);
+                userTag.setTagId(tagId);
+                addedList.add(userTag);
+            }
+        }
+        if (!addedList.isEmpty()) {
+            this.saveBatch(addedList);
+        }
+    }
+}
+
+
+
+
@@ -3,6 +3,10 @@ package com.ariel.findfriendbackend.service;
 import com.ariel.findfriendbackend.model.domain.Tag;
 import com.baomidou.mybatisplus.extension.service.IService;
 
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
 /**
 * @author Ariel
 * @description 针对表【tag(用户)】的数据库操作Service
@@ -10,4 +14,51 @@ import com.baomidou.mybatisplus.extension.service.IService;
 */
 public interface TagService extends IService<Tag> {
 
+    /**
+     * 查询已存在的标签 id，标签名 -> 标签 id
+     * @param tagNames
+     * @return
+     */
+    Map<String, Long> getTagIdMap(Collection<String> tagNames);
+
+    /**
+     * 查询标签 id，不存在的标签会先创建
+     * 用户可以填自定义标签，新标签会进入公共标签库（自动补全、模糊匹配都会用到），
+     * 所以每个标签名长度有上限，每个用户的标签数由调用方限制
+     * @param tagNames
+     * @param userId 创建标签的用户
+     * @return
+     */
+    Map<String, Long> getOrCreateTagIds(Collection<String> tagNames, long userId);
+
+    /**
+     * 标签名是否可以写入标签库：非空白且长度不超过上限
+     * @param tagName
+     * @return
+     */
+    boolean isValidTagName(String tagName);
+
+    /**
+     * 标签名自动补全，按使用人数降序返回以 prefix 开头的标签，不区分大小写
+     * @param prefix
+     * @return
+     */
+    List<String> suggestTags(String prefix);
+
+    /**
+     * 重新构建标签名前缀树
+     */
+    void refreshTagTrie();
+
+    /**
+     * 按编辑距离模糊匹配标签名，返回已知的相近标签，距离近的在前，不区分大小写
+     * @param tagName
+     * @return
+     */
+    List<String> getFuzzyTagNames(String tagName);
+
+    /**
+     * 重新构建标签名模糊匹配用的 BK 树
+     */
+    void refreshTagBkTree();
 }
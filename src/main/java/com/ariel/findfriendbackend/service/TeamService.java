@@ -7,6 +7,7 @@ import com.ariel.findfriendbackend.model.domain.User;
 import com.ariel.findfriendbackend.model.request.TeamJoinRequest;
 import com.ariel.findfriendbackend.model.request.TeamQuitRequest;
 import com.ariel.findfriendbackend.model.request.TeamUpdateRequest;
+import com.ariel.findfriendbackend.model.vo.TeamJoinTicketVo;
 import com.ariel.findfriendbackend.model.vo.TeamUserVo;
 import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
 import com.baomidou.mybatisplus.extension.service.IService;
@@ -32,9 +33,11 @@ public interface TeamService extends IService<Team> {
     /**
      * 查询队伍
      * @param teamQuery
+     * @param isAdmin
+     * @param loginUser 当前登录用户，未登录时为 null，用来判断是否已加入队伍
      * @return
      */
-    List<TeamUserVo> listTeams(TeamQuery teamQuery,boolean isAdmin);
+    List<TeamUserVo> listTeams(TeamQuery teamQuery, boolean isAdmin, User loginUser);
 
     /**
      * 更新队伍新消息
@@ -50,6 +53,22 @@ public interface TeamService extends IService<Team> {
      */
     boolean joinTeam(TeamJoinRequest teamJoinRequest,User loginUser);
 
+    /**
+     * 排队加入队伍，立即返回凭证，结果通过 getJoinTicket 查询
+     * @param teamJoinRequest
+     * @param loginUser
+     * @return 凭证
+     */
+    String joinTeamAsync(TeamJoinRequest teamJoinRequest, User loginUser);
+
+    /**
+     * 查询排队加入队伍的结果
+     * @param ticket
+     * @param loginUser
+     * @return
+     */
+    TeamJoinTicketVo getJoinTicket(String ticket, User loginUser);
+
     /**
      * 退出队伍
      * @param teamQuitRequest
@@ -58,6 +77,13 @@ public interface TeamService extends IService<Team> {
      */
     boolean quitTeam(TeamQuitRequest teamQuitRequest, User loginUser);
 
+    /**
+     * 获取队伍，队伍不存在时抛出异常
+     * @param teamId
+     * @return
+     */
+    Team getTeamById(Long teamId);
+
     /**
      * 删除队伍
      * @param id,loginUser
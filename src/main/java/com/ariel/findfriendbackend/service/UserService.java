@@ -1,9 +1,12 @@
 package com.ariel.findfriendbackend.service;
 
+import com.ariel.findfriendbackend.common.CursorPage;
 import com.ariel.findfriendbackend.model.domain.Tag;
 
 import com.ariel.findfriendbackend.model.domain.User;
+import com.ariel.findfriendbackend.model.enums.TagMatchModeEnum;
 import com.ariel.findfriendbackend.model.vo.TagVo;
+import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.baomidou.mybatisplus.extension.service.IService;
 
 import javax.servlet.http.HttpServletRequest;
@@ -54,18 +57,56 @@ public interface UserService extends IService<User> {
     int userLogout(HttpServletRequest request);
 
     /**
-     *
+     * 根据标签搜索用户，返回所有命中的用户
      * @param tagNameList
      * @return
      */
     List<User> getUserByTags(List<String> tagNameList);
 
     /**
-     * 利用数据库查询
+     * 根据标签搜索用户，利用内存倒排索引游标分页
+     * @param tagNameList
+     * @param lastId 上一页最后一个用户 id，第一页传 0
+     * @param pageSize
+     * @return
+     */
+    CursorPage<User> getUserByTags(List<String> tagNameList, long lastId, int pageSize);
+
+    /**
+     * 利用 Redis 标签索引查询，游标分页
      * @param tagNameList
+     * @param lastId
+     * @param pageSize
      * @return
      */
-    List<User> getUserByTagsSql(List<String> tagNameList);
+    CursorPage<User> getUserByTagsRedis(List<String> tagNameList, long lastId, int pageSize);
+
+    /**
+     * 利用数据库查询，走 user_tag 关系表索引，游标分页
+     * @param tagNameList
+     * @param lastId
+     * @param pageSize
+     * @return
+     */
+    CursorPage<User> getUserByTagsSql(List<String> tagNameList, long lastId, int pageSize);
+
+    /**
+     * 模糊搜索，容忍标签拼写错误和大小写不同，游标分页
+     * @param tagNameList
+     * @param lastId
+     * @param pageSize
+     * @return
+     */
+    CursorPage<User> getUserByTagsFuzzy(List<String> tagNameList, long lastId, int pageSize);
+
+    /**
+     * 按命中标签的数量或权重给用户打分，返回分数最高的 num 个用户
+     * @param tagNameList
+     * @param matchMode ANY：按命中标签数；WEIGHTED：按命中标签的 IDF 权重之和
+     * @param num
+     * @return 按分数降序
+     */
+    List<User> getUserByTagsRanked(List<String> tagNameList, TagMatchModeEnum matchMode, int num);
 
     /**
      * 更新用户信息
@@ -102,4 +143,21 @@ public interface UserService extends IService<User> {
      * @return
      */
     TagVo getTags(String currentId, HttpServletRequest request);
+
+    /**
+     * 按标签相似度（Jaccard）匹配和当前用户最像的用户
+     * @param num
+     * @param loginUser
+     * @return 按相似度降序
+     */
+    List<User> matchUsers(long num, User loginUser);
+
+    /**
+     * 推荐用户：优先读批处理预先算好的推荐列表，没有时返回通用分页
+     * @param pageSize
+     * @param pageNum
+     * @param loginUser
+     * @return
+     */
+    Page<User> recommendUsers(long pageSize, long pageNum, User loginUser);
 }
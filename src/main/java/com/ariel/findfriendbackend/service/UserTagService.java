@@ -0,0 +1,20 @@
+package com.ariel.findfriendbackend.service;
+
+import com.ariel.findfriendbackend.model.domain.UserTag;
+import com.baomidou.mybatisplus.extension.service.IService;
+
+import java.util.Set;
+
+/**
+* @author Ariel
+* @description 针对表【user_tag(用户标签关系表)】的数据库操作Service
+*/
+public interface UserTagService extends IService<UserTag> {
+
+    /**
+     * 把用户当前的标签同步到关系表
+     * @param userId
+     * @param tagNames
+     */
+    void syncUserTags(long userId, Set<String> tagNames);
+}
@@ -0,0 +1,173 @@
+package com.ariel.findfriendbackend.utils;
+
+import java.util.Arrays;
+
+/**
+ * BK 树：按编辑距离组织字符串，查询距离不超过 maxDistance 的词时利用三角不等式剪枝，不用和每个词都算一遍
+ * 节点用数组存储，构建后只读，可以被多个线程同时查询
+ * @author Ariel
+ */
+public class BkTree {
+
+    private static final int[] EMPTY_IDS = new int[0];
+
+    private String[] words = new String[16];
+
+    /**
+     * 每个节点上的 id，同一个词可能对应多个 id（比如只有大小写不同的标签）
+     */
+    private int[][] ids = new int[16][];
+
+    /**
+     * 孩子链表：firstChild / nextSibling，edgeDistances 是孩子到父节点的编辑距离
+     */
+    private int[] firstChild = new int[16];
+
+    private int[] nextSibling = new int[16];
+
+    private int[] edgeDistances = new int[16];
+
+    private int size;
+
+    /**
+     * 添加一个词，构建完成后不要再调用
+     * @param word
+     * @param id
+     */
+    public void add(String word, int id) {
+        if (size == 0) {
+            newNode(word, id);
+            return;
+        }
+        int node = 0;
+        while (true) {
+            int distance = distance(word, words[node], Integer.MAX_VALUE);
+            if (distance == 0) {
+                ids[node] = Arrays.copyOf(ids[node], ids[node].length + 1);
+                ids[node][ids[node].length - 1] = id;
+                return;
+            }
+            int child = firstChild[node];
+            while (child >= 0 && edgeDistances[child] != distance) {
+                child = nextSibling[child];
+            }
+            if (child < 0) {
+                child = newNode(word, id);
+                edgeDistances[child] = distance;
+                nextSibling[child] = firstChild[node];
+                firstChild[node] = child;
+                return;
+            }
+            node = child;
+        }
+    }
+
+    /**
+     * 查询和 word 的编辑距离不超过 maxDistance 的所有 id，按距离升序
+     * @param word
+     * @param maxDistance
+     * @return
+     */
+    public int[] search(String word, int maxDistance) {
+        if (size == 0) {
+            return EMPTY_IDS;
+        }
+        // 按距离分桶，输出时距离近的排在前面
+        int[][] buckets = new int[maxDistance + 1][];
+        int[] bucketSizes = new int[maxDistance + 1];
+        int[] stack = new int[16];
+        int top = 0;
+        stack[top++] = 0;
+        while (top > 0) {
+            int node = stack[--top];
+            int distance = distance(word, words[node], Integer.MAX_VALUE);
+            if (distance <= maxDistance) {
+                for (int id : ids[node]) {
+                    if (buckets[distance] == null) {
+                        buckets[distance] = new int[4];
+                    } else if (bucketSizes[distance] == buckets[distance].length) {
+                        buckets[distance] = Arrays.copyOf(buckets[distance], bucketSizes[distance] << 1);
+                    }
+                    buckets[distance][bucketSizes[distance]++] = id;
+                }
+            }
+            // 三角不等式：只有到父节点距离在 [d - max, d + max] 之间的孩子才可能命中
+            for (int child = firstChild[node]; child >= 0; child = nextSibling[child]) {
+                if (Math.abs(edgeDistances[child] - distance) <= maxDistance) {
+                    if (top == stack.length) {
+                        stack = Arrays.copyOf(stack, top << 1);
+                    }
+                    stack[top++] = child;
+                }
+            }
+        }
+        int total = 0;
+        for (int bucketSize : bucketSizes) {
+            total += bucketSize;
+        }
+        int[] result = new int[total];
+        int index = 0;
+        for (int distance = 0; distance <= maxDistance; distance++) {
+            if (bucketSizes[distance] > 0) {
+                System.arraycopy(buckets[distance], 0, result, index, bucketSizes[distance]);
+                index += bucketSizes[distance];
+            }
+        }
+        return result;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * 两个字符串的编辑距离（Levenshtein），只保留两行 dp
+     * @param a
+     * @param b
+     * @param limit 距离一定超过 limit 时提前返回 limit + 1
+     * @return
+     */
+    public static int distance(String a, String b, int limit) {
+        if (Math.abs(a.length() - b.length()) > limit) {
+            return limit + 1;
+        }
+        int[] previous = new int[b.length() + 1];
+        int[] current = new int[b.length() + 1];
+        for (int j = 0; j <= b.length(); j++) {
+            previous[j] = j;
+        }
+        for (int i = 1; i <= a.length(); i++) {
+            current[0] = i;
+            int rowMin = current[0];
+            char ca = a.charAt(i - 1);
+            for (int j = 1; j <= b.length(); j++) {
+                int cost = ca == b.charAt(j - 1) ? 0 : 1;
+                current[j] = Math.min(Math.min(current[j - 1] + 1, previous[j] + 1), previous[j - 1] + cost);
+                rowMin = Math.min(rowMin, current[j]);
+            }
+            if (rowMin > limit) {
+                return limit + 1;
+            }
+            int[] temp = previous;
+            previous = current;
+            current = temp;
+        }
+        return previous[b.length()];
+    }
+
+    private int newNode(String word, int id) {
+        if (size == words.length) {
+            int capacity = size << 1;
+            words = Arrays.copyOf(words, capacity);
+            ids = Arrays.copyOf(ids, capacity);
+            firstChild = Arrays.copyOf(firstChild, capacity);
+            nextSibling = Arrays.copyOf(nextSibling, capacity);
+            edgeDistances = Arrays.copyOf(edgeDistances, capacity);
+        }
+        words[size] = word;
+        ids[size] = new int[]{id};
+        firstChild[size] = -1;
+        nextSibling[size] = -1;
+        return size++;
+    }
+}
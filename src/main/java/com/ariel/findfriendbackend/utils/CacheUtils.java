@@ -0,0 +1,23 @@
+package com.ariel.findfriendbackend.utils;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 缓存工具类
+ * @author Ariel
+ */
+public class CacheUtils {
+
+    private CacheUtils() {
+    }
+
+    /**
+     * 过期时间加上 [0, jitterMillis) 的随机抖动，避免大量 key 同时过期造成缓存雪崩
+     * @param baseMillis
+     * @param jitterMillis
+     * @return
+     */
+    public static long jitterTtlMillis(long baseMillis, long jitterMillis) {
+        return baseMillis + ThreadLocalRandom.current().nextLong(jitterMillis);
+    }
+}
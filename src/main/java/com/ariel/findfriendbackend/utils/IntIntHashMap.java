@@ -0,0 +1,117 @@
+package com.ariel.findfriendbackend.utils;
+
+import java.util.Arrays;
+
+/**
+ * 基本类型 int -> int 的开放寻址哈希表，key 必须是非负数，避免 Map<Integer, Integer> 装箱
+ * 用作计数器：不支持删除，计数减到 0 的 key 仍然占着槽位，遍历时跳过即可
+ * @author Ariel
+ */
+public class IntIntHashMap {
+
+    private static final int EMPTY_KEY = -1;
+
+    private int[] keys;
+
+    private int[] values;
+
+    private int size;
+
+    private int mask;
+
+    public IntIntHashMap() {
+        this(16);
+    }
+
+    public IntIntHashMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(expectedSize * 2 - 1, 4)) << 1;
+        allocate(capacity);
+    }
+
+    public int get(int key) {
+        int slot = slotOf(key);
+        return keys[slot] == key ? values[slot] : 0;
+    }
+
+    /**
+     * 给 key 的计数加上 delta，返回加完之后的值
+     * @param key
+     * @param delta
+     * @return
+     */
+    public int addTo(int key, int delta) {
+        if (key < 0) {
+            throw new IllegalArgumentException("key must be non-negative: " + key);
+        }
+        int slot = slotOf(key);
+        if (keys[slot] == key) {
+            values[slot] += delta;
+            return values[slot];
+        }
+        keys[slot] = key;
+        values[slot] = delta;
+        // 负载超过 1/2 就扩容，保证探测链足够短
+        if (++size * 2 > keys.length) {
+            resize();
+        }
+        return delta;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * 槽位数，配合 keyAt / valueAt 遍历
+     * @return
+     */
+    public int capacity() {
+        return keys.length;
+    }
+
+    /**
+     * 槽位上的 key，空槽返回 -1
+     * @param slot
+     * @return
+     */
+    public int keyAt(int slot) {
+        return keys[slot];
+    }
+
+    public int valueAt(int slot) {
+        return values[slot];
+    }
+
+    private int slotOf(int key) {
+        int slot = mix(key) & mask;
+        while (keys[slot] != EMPTY_KEY && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void resize() {
+        int[] oldKeys = keys;
+        int[] oldValues = values;
+        allocate(oldKeys.length << 1);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY_KEY) {
+                int slot = slotOf(oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        Arrays.fill(keys, EMPTY_KEY);
+        values = new int[capacity];
+        mask = capacity - 1;
+    }
+
+    private static int mix(int key) {
+        int hash = key * 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+}
@@ -0,0 +1,225 @@
+package com.ariel.findfriendbackend.utils;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 倒排表（升序、无重复的 long 数组）操作工具类
+ * @author Ariel
+ */
+public class PostingListUtils {
+
+    public static final long[] EMPTY = new long[0];
+
+    /**
+     * 两个倒排表长度相差超过这个倍数时，改用二分跳跃求交集
+     */
+    private static final int GALLOP_RATIO = 32;
+
+    private PostingListUtils() {
+    }
+
+    /**
+     * 求交集
+     * @param a
+     * @param b
+     * @return
+     */
+    public static long[] intersect(long[] a, long[] b) {
+        if (a.length == 0 || b.length == 0) {
+            return EMPTY;
+        }
+        // 保证 a 是短的那个
+        if (a.length > b.length) {
+            long[] temp = a;
+            a = b;
+            b = temp;
+        }
+        long[] result = new long[a.length];
+        int size = 0;
+        if ((long) a.length * GALLOP_RATIO < b.length) {
+            // 短表去长表里二分查找，复杂度 O(m log n)
+            int from = 0;
+            for (long value : a) {
+                int index = Arrays.binarySearch(b, from, b.length, value);
+                if (index >= 0) {
+                    result[size++] = value;
+                    from = index + 1;
+                } else {
+                    from = -index - 1;
+                }
+                if (from >= b.length) {
+                    break;
+                }
+            }
+        } else {
+            // 长度相近时双指针归并，复杂度 O(m + n)
+            int i = 0;
+            int j = 0;
+            while (i < a.length && j < b.length) {
+                if (a[i] < b[j]) {
+                    i++;
+                } else if (a[i] > b[j]) {
+                    j++;
+                } else {
+                    result[size++] = a[i];
+                    i++;
+                    j++;
+                }
+            }
+        }
+        return size == result.length ? result : Arrays.copyOf(result, size);
+    }
+
+    /**
+     * 分页求交集：只取 id 大于 afterId 的前 limit 个交集元素
+     * 多个倒排表轮流跳跃（leapfrog），凑够 limit 个就停，代价和页大小相关而不是和命中总数相关
+     * @param lists
+     * @param afterId 上一页最后一个 id，第一页传 0
+     * @param limit
+     * @return
+     */
+    public static long[] intersectAfter(List<long[]> lists, long afterId, int limit) {
+        int listNum = lists.size();
+        if (listNum == 0 || limit <= 0) {
+            return EMPTY;
+        }
+        int[] positions = new int[listNum];
+        for (int i = 0; i < listNum; i++) {
+            long[] list = lists.get(i);
+            positions[i] = seek(list, 0, afterId + 1);
+            if (positions[i] >= list.length) {
+                return EMPTY;
+            }
+        }
+        LongArrayList result = new LongArrayList(Math.min(limit, 1024));
+        long candidate = lists.get(0)[positions[0]];
+        int matched = 1;
+        int current = listNum > 1 ? 1 : 0;
+        while (true) {
+            long[] list = lists.get(current);
+            int position = seek(list, positions[current], candidate);
+            if (position >= list.length) {
+                break;
+            }
+            positions[current] = position;
+            if (list[position] == candidate) {
+                if (listNum == 1 || ++matched == listNum) {
+                    result.add(candidate);
+                    if (result.size() >= limit) {
+                        break;
+                    }
+                    // 命中后当前表前进一位，以它的下一个元素作为新的候选
+                    if (++positions[current] >= list.length) {
+                        break;
+                    }
+                    candidate = list[positions[current]];
+                    matched = 1;
+                }
+            } else {
+                candidate = list[position];
+                matched = 1;
+            }
+            current = (current + 1) % listNum;
+        }
+        return result.toArray();
+    }
+
+    /**
+     * 从 from 开始跳跃查找第一个 >= target 的下标，找不到返回 list.length
+     * @param list
+     * @param from
+     * @param target
+     * @return
+     */
+    private static int seek(long[] list, int from, long target) {
+        if (from >= list.length || list[from] >= target) {
+            return from;
+        }
+        // 指数步长向后跳，再在最后一段里二分
+        int step = 1;
+        int low = from;
+        int high = from + 1;
+        while (high < list.length && list[high] < target) {
+            low = high;
+            step <<= 1;
+            high = from + step;
+        }
+        high = Math.min(high, list.length);
+        int index = Arrays.binarySearch(list, low + 1, high, target);
+        return index >= 0 ? index : -index - 1;
+    }
+
+    /**
+     * 求并集
+     * @param a
+     * @param b
+     * @return
+     */
+    public static long[] union(long[] a, long[] b) {
+        if (a.length == 0) {
+            return b;
+        }
+        if (b.length == 0) {
+            return a;
+        }
+        long[] result = new long[a.length + b.length];
+        int i = 0;
+        int j = 0;
+        int size = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) {
+                result[size++] = a[i++];
+            } else if (a[i] > b[j]) {
+                result[size++] = b[j++];
+            } else {
+                result[size++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        while (i < a.length) {
+            result[size++] = a[i++];
+        }
+        while (j < b.length) {
+            result[size++] = b[j++];
+        }
+        return size == result.length ? result : Arrays.copyOf(result, size);
+    }
+
+    /**
+     * 插入一个 id，返回新数组（写时复制），已存在时返回原数组
+     * @param list
+     * @param value
+     * @return
+     */
+    public static long[] insert(long[] list, long value) {
+        int index = Arrays.binarySearch(list, value);
+        if (index >= 0) {
+            return list;
+        }
+        int insertAt = -index - 1;
+        long[] result = new long[list.length + 1];
+        System.arraycopy(list, 0, result, 0, insertAt);
+        result[insertAt] = value;
+        System.arraycopy(list, insertAt, result, insertAt + 1, list.length - insertAt);
+        return result;
+    }
+
+    /**
+     * 删除一个 id，返回新数组（写时复制），不存在时返回原数组
+     * @param list
+     * @param value
+     * @return
+     */
+    public static long[] remove(long[] list, long value) {
+        int index = Arrays.binarySearch(list, value);
+        if (index < 0) {
+            return list;
+        }
+        long[] result = new long[list.length - 1];
+        System.arraycopy(list, 0, result, 0, index);
+        System.arraycopy(list, index + 1, result, index, list.length - index - 1);
+        return result;
+    }
+}
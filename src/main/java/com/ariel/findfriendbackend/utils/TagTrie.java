@@ -0,0 +1,151 @@
+package com.ariel.findfriendbackend.utils;
+
+import java.util.Arrays;
+
+/**
+ * 标签名前缀树，节点用数组存储（孩子链表 + 兄弟链表），构建后只读，可以被多个线程同时查询
+ * 每个节点预先存好以该前缀开头、热度最高的前 K 个标签 id，查询只需沿前缀走 O(前缀长度) 步
+ * @author Ariel
+ */
+public class TagTrie {
+
+    private static final int[] EMPTY_IDS = new int[0];
+
+    private final char[] labels;
+
+    private final int[] firstChild;
+
+    private final int[] nextSibling;
+
+    /**
+     * 每个节点热度最高的前 K 个标签 id，按热度降序
+     */
+    private final int[][] topIds;
+
+    private TagTrie(char[] labels, int[] firstChild, int[] nextSibling, int[][] topIds) {
+        this.labels = labels;
+        this.firstChild = firstChild;
+        this.nextSibling = nextSibling;
+        this.topIds = topIds;
+    }
+
+    /**
+     * 构建前缀树
+     * @param keys 标签名（已经统一大小写）
+     * @param ids 标签 id，和 keys 一一对应
+     * @param scores 标签热度，和 keys 一一对应
+     * @param topK 每个节点保留的标签数
+     * @return
+     */
+    public static TagTrie build(String[] keys, int[] ids, int[] scores, int topK) {
+        // 按热度降序插入，每个节点先到先得，插满 topK 个就是最热门的 topK 个
+        Integer[] order = new Integer[keys.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Integer.compare(scores[b], scores[a]));
+        Builder builder = new Builder(keys.length * 4 + 1, topK);
+        for (int index : order) {
+            builder.insert(keys[index], ids[index]);
+        }
+        return builder.toTrie();
+    }
+
+    /**
+     * 查询以 prefix 开头的标签 id，按热度降序
+     * @param prefix
+     * @return
+     */
+    public int[] search(String prefix) {
+        int node = 0;
+        for (int i = 0; i < prefix.length() && node >= 0; i++) {
+            node = findChild(firstChild, nextSibling, labels, node, prefix.charAt(i));
+        }
+        return node < 0 ? EMPTY_IDS : topIds[node];
+    }
+
+    private static int findChild(int[] firstChild, int[] nextSibling, char[] labels, int node, char label) {
+        int child = firstChild[node];
+        while (child >= 0 && labels[child] != label) {
+            child = nextSibling[child];
+        }
+        return child;
+    }
+
+    private static class Builder {
+
+        private final int topK;
+
+        private char[] labels;
+
+        private int[] firstChild;
+
+        private int[] nextSibling;
+
+        private int[][] topIds;
+
+        private int[] topSizes;
+
+        private int size;
+
+        Builder(int capacity, int topK) {
+            this.topK = topK;
+            labels = new char[capacity];
+            firstChild = new int[capacity];
+            nextSibling = new int[capacity];
+            topIds = new int[capacity][];
+            topSizes = new int[capacity];
+            newNode('\0');
+        }
+
+        void insert(String key, int id) {
+            int node = 0;
+            offer(node, id);
+            for (int i = 0; i < key.length(); i++) {
+                char label = key.charAt(i);
+                int child = findChild(firstChild, nextSibling, labels, node, label);
+                if (child < 0) {
+                    child = newNode(label);
+                    nextSibling[child] = firstChild[node];
+                    firstChild[node] = child;
+                }
+                node = child;
+                offer(node, id);
+            }
+        }
+
+        TagTrie toTrie() {
+            int[][] trimmedTopIds = new int[size][];
+            for (int node = 0; node < size; node++) {
+                trimmedTopIds[node] = topSizes[node] == 0 ? EMPTY_IDS : Arrays.copyOf(topIds[node], topSizes[node]);
+            }
+            return new TagTrie(Arrays.copyOf(labels, size), Arrays.copyOf(firstChild, size),
+                    Arrays.copyOf(nextSibling, size), trimmedTopIds);
+        }
+
+        private void offer(int node, int id) {
+            if (topSizes[node] >= topK) {
+                return;
+            }
+            if (topIds[node] == null) {
+                topIds[node] = new int[topK];
+            }
+            topIds[node][topSizes[node]++] = id;
+        }
+
+        private int newNode(char label) {
+            if (size == labels.length) {
+                int capacity = size << 1;
+                labels = Arrays.copyOf(labels, capacity);
+                firstChild = Arrays.copyOf(firstChild, capacity);
+                nextSibling = Arrays.copyOf(nextSibling, capacity);
+                topIds = Arrays.copyOf(topIds, capacity);
+                topSizes = Arrays.copyOf(topSizes, capacity);
+            }
+            labels[size] = label;
+            firstChild[size] = -1;
+            nextSibling[size] = -1;
+            return size++;
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.ariel.findfriendbackend.utils;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.reflect.TypeToken;
+import org.apache.commons.lang3.StringUtils;
+
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 用户标签工具类
+ * @author Ariel
+ */
+public class TagUtils {
+
+    private static final Gson GSON = new Gson();
+
+    private static final Type TAG_SET_TYPE = new TypeToken<Set<String>>() {
+    }.getType();
+
+    private static final Type TAG_LIST_TYPE = new TypeToken<List<String>>() {
+    }.getType();
+
+    private TagUtils() {
+    }
+
+    /**
+     * 把数据库中的 tags json 字符串解析为标签集合，为空或格式错误时返回空集合
+     * @param tagsJson
+     * @return
+     */
+    public static Set<String> parseTags(String tagsJson) {
+        if (StringUtils.isBlank(tagsJson)) {
+            return Collections.emptySet();
+        }
+        Set<String> tagSet;
+        try {
+            tagSet = GSON.fromJson(tagsJson, TAG_SET_TYPE);
+        } catch (JsonParseException e) {
+            return Collections.emptySet();
+        }
+        if (tagSet == null) {
+            return Collections.emptySet();
+        }
+        // 过滤掉 json 里的 null 和空白标签
+        Set<String> result = new HashSet<>(tagSet.size());
+        for (String tag : tagSet) {
+            if (StringUtils.isNotBlank(tag)) {
+                result.add(tag);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 把标签集合序列化为 tags json 字符串
+     * @param tags
+     * @return
+     */
+    public static String toJson(Collection<String> tags) {
+        return GSON.toJson(tags);
+    }
+
+    /**
+     * 把 tags json 字符串解析为标签列表，保留用户填写的顺序，为空或格式错误时返回空列表
+     * @param tagsJson
+     * @return
+     */
+    public static List<String> parseTagList(String tagsJson) {
+        if (StringUtils.isBlank(tagsJson)) {
+            return new ArrayList<>();
+        }
+        List<String> tagList;
+        try {
+            tagList = GSON.fromJson(tagsJson, TAG_LIST_TYPE);
+        } catch (JsonParseException e) {
+            return new ArrayList<>();
+        }
+        List<String> result = new ArrayList<>();
+        if (tagList != null) {
+            for (String tag : tagList) {
+                if (StringUtils.isNotBlank(tag) && !result.contains(tag)) {
+                    result.add(tag);
+                }
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,126 @@
+package com.ariel.findfriendbackend.utils;
+
+/**
+ * 容量固定的小顶堆，保留分数最高的前 N 个 id，用基本类型数组存储，不装箱
+ * 分数相同时 id 小的优先
+ * @author Ariel
+ */
+public class TopNHeap {
+
+    private final double[] scores;
+
+    private final long[] ids;
+
+    private int size;
+
+    public TopNHeap(int capacity) {
+        scores = new double[capacity];
+        ids = new long[capacity];
+    }
+
+    /**
+     * 尝试加入一个 id，比堆顶（当前第 N 名）差时直接丢弃，O(log N)
+     * @param score
+     * @param id
+     * @return 是否加入
+     */
+    public boolean offer(double score, long id) {
+        if (scores.length == 0) {
+            return false;
+        }
+        if (size < scores.length) {
+            scores[size] = score;
+            ids[size] = id;
+            siftUp(size++);
+            return true;
+        }
+        if (!worse(scores[0], ids[0], score, id)) {
+            return false;
+        }
+        scores[0] = score;
+        ids[0] = id;
+        siftDown(0);
+        return true;
+    }
+
+    /**
+     * 把另一个堆里的 id 全部尝试加入，用于合并多个分片的结果
+     * @param other
+     */
+    public void offerAll(TopNHeap other) {
+        for (int i = 0; i < other.size; i++) {
+            offer(other.scores[i], other.ids[i]);
+        }
+    }
+
+    /**
+     * 堆满时的最低分数，堆没满时返回负无穷，调用方可以用来提前剪枝
+     * @return
+     */
+    public double minScore() {
+        return size < scores.length ? Double.NEGATIVE_INFINITY : scores[0];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * 按分数降序取出所有 id，取出后堆被清空
+     * @return
+     */
+    public long[] pollAllDescending() {
+        long[] result = new long[size];
+        for (int i = size - 1; i >= 0; i--) {
+            result[i] = ids[0];
+            size--;
+            scores[0] = scores[size];
+            ids[0] = ids[size];
+            siftDown(0);
+        }
+        return result;
+    }
+
+    /**
+     * a 是否排在 b 后面
+     */
+    private static boolean worse(double scoreA, long idA, double scoreB, long idB) {
+        return scoreA < scoreB || (scoreA == scoreB && idA > idB);
+    }
+
+    private void siftUp(int index) {
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            if (!worse(scores[index], ids[index], scores[parent], ids[parent])) {
+                break;
+            }
+            swap(index, parent);
+            index = parent;
+        }
+    }
+
+    private void siftDown(int index) {
+        while (true) {
+            int left = index * 2 + 1;
+            if (left >= size) {
+                break;
+            }
+            int child = left + 1 < size && worse(scores[left + 1], ids[left + 1], scores[left], ids[left])
+                    ? left + 1 : left;
+            if (!worse(scores[child], ids[child], scores[index], ids[index])) {
+                break;
+            }
+            swap(index, child);
+            index = child;
+        }
+    }
+
+    private void swap(int i, int j) {
+        double score = scores[i];
+        scores[i] = scores[j];
+        scores[j] = score;
+        long id = ids[i];
+        ids[i] = ids[j];
+        ids[j] = id;
+    }
+}
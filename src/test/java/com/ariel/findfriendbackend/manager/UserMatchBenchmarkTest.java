@@ -0,0 +1,108 @@
+package com.ariel.findfriendbackend.manager;
+
+import com.ariel.findfriendbackend.config.SearchPoolConfig;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * LSH 近似召回 + 精确重排 对比 全量精确打分 的召回率和耗时
+ * 合成数据：用户的标签大多来自同一个兴趣组，再混入少量随机标签
+ * 10 万用户，默认不跑：mvn test -Dgroups=benchmark -DexcludedGroups=
+ */
+@Tag("benchmark")
+class UserMatchBenchmarkTest {
+
+    private static final int TAG_NUM = 500;
+
+    private static final int GROUP_NUM = 60;
+
+    private static final int GROUP_SIZE = 10;
+
+    private static final int USER_NUM = 100000;
+
+    private static final int QUERY_NUM = 200;
+
+    private static final int TOP_N = 10;
+
+    @Test
+    void recallAndLatency() {
+        Random random = new Random(7);
+        TagDictionary tagDictionary = new TagDictionary();
+        for (int i = 0; i < TAG_NUM; i++) {
+            tagDictionary.register("tag" + i);
+        }
+        int[][] groups = new int[GROUP_NUM][GROUP_SIZE];
+        for (int[] group : groups) {
+            for (int i = 0; i < GROUP_SIZE; i++) {
+                group[i] = random.nextInt(TAG_NUM);
+            }
+        }
+        Map<Long, int[]> userTagMap = new HashMap<>(USER_NUM * 2);
+        for (long userId = 1; userId <= USER_NUM; userId++) {
+            int[] group = groups[random.nextInt(GROUP_NUM)];
+            TreeSet<Integer> tagIds = new TreeSet<>();
+            int tagNum = 3 + random.nextInt(4);
+            while (tagIds.size() < tagNum) {
+                tagIds.add(random.nextInt(5) == 0 ? random.nextInt(TAG_NUM) : group[random.nextInt(GROUP_SIZE)]);
+            }
+            userTagMap.put(userId, tagIds.stream().mapToInt(Integer::intValue).toArray());
+        }
+        SearchTaskExecutor searchTaskExecutor = new SearchTaskExecutor();
+        ReflectionTestUtils.setField(searchTaskExecutor, "searchForkJoinPool", new ForkJoinPool(4));
+        ReflectionTestUtils.setField(searchTaskExecutor, "searchPoolConfig", new SearchPoolConfig());
+        ReflectionTestUtils.setField(searchTaskExecutor, "meterRegistry", new SimpleMeterRegistry());
+        searchTaskExecutor.init();
+        UserMatchManager userMatchManager = new UserMatchManager();
+        ReflectionTestUtils.setField(userMatchManager, "tagDictionary", tagDictionary);
+        ReflectionTestUtils.setField(userMatchManager, "searchTaskExecutor", searchTaskExecutor);
+        userMatchManager.rebuild(userTagMap);
+        MinHashLshManager minHashLshManager = new MinHashLshManager();
+        minHashLshManager.rebuild(userTagMap);
+
+        long exactNanos = 0;
+        long lshNanos = 0;
+        long candidateNum = 0;
+        double recallSum = 0;
+        for (int q = 0; q < QUERY_NUM; q++) {
+            long userId = 1 + random.nextInt(USER_NUM);
+            int[] tagIds = userTagMap.get(userId);
+            long start = System.nanoTime();
+            long[] exact = userMatchManager.matchUserIds(tagIds, userId, TOP_N);
+            exactNanos += System.nanoTime() - start;
+            start = System.nanoTime();
+            long[] candidateIds = minHashLshManager.getCandidateUserIds(tagIds);
+            long[] approximate = userMatchManager.rerankUserIds(tagIds, candidateIds, userId, TOP_N);
+            lshNanos += System.nanoTime() - start;
+            candidateNum += candidateIds.length;
+            // 分数相同的用户可以互换，按分数算召回：近似结果里有多少个不低于精确结果的第 N 名
+            double kthScore = jaccard(tagIds, userTagMap.get(exact[exact.length - 1]));
+            int hit = 0;
+            for (long approximateId : approximate) {
+                if (jaccard(tagIds, userTagMap.get(approximateId)) >= kthScore) {
+                    hit++;
+                }
+            }
+            recallSum += (double) hit / exact.length;
+        }
+        double recall = recallSum / QUERY_NUM;
+        System.out.printf("users=%d, recall@%d=%.3f, avg candidates=%d, exact=%.3fms, lsh=%.3fms%n", USER_NUM, TOP_N,
+                recall, candidateNum / QUERY_NUM, exactNanos / 1e6 / QUERY_NUM, lshNanos / 1e6 / QUERY_NUM);
+        Assertions.assertTrue(recall >= 0.8, "recall too low: " + recall);
+    }
+
+    private static double jaccard(int[] a, int[] b) {
+        int intersection = 0;
+        for (int tagId : a) {
+            if (Arrays.binarySearch(b, tagId) >= 0) {
+                intersection++;
+            }
+        }
+        return (double) intersection / (a.length + b.length - intersection);
+    }
+}
@@ -0,0 +1,155 @@
+package com.ariel.findfriendbackend.service.Impl;
+
+import com.ariel.findfriendbackend.exception.BusinessException;
+import com.ariel.findfriendbackend.manager.IdBloomFilterManager;
+import com.ariel.findfriendbackend.model.domain.Team;
+import com.ariel.findfriendbackend.model.domain.User;
+import com.ariel.findfriendbackend.model.domain.UserTeam;
+import com.ariel.findfriendbackend.model.request.TeamJoinRequest;
+import com.ariel.findfriendbackend.service.TeamService;
+import com.ariel.findfriendbackend.service.UserService;
+import com.ariel.findfriendbackend.service.UserTeamService;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+
+import javax.annotation.Resource;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 并发加入队伍：很多用户分别加入很多队伍 对比 很多用户同时加入同一个队伍
+ * 打印吞吐量，并检查队伍人数没有超员、和关系表一致
+ * 需要库里至少有 USER_NUM + 1 个用户，默认不跑：mvn test -Dgroups=benchmark -DexcludedGroups=
+ */
+@SpringBootTest
+@Tag("benchmark")
+class TeamJoinBenchmarkTest {
+
+    private static final int USER_NUM = 100;
+
+    private static final int THREAD_NUM = 32;
+
+    private static final int MAX_NUM = 20;
+
+    @Resource
+    private TeamService teamService;
+
+    @Resource
+    private UserService userService;
+
+    @Resource
+    private UserTeamService userTeamService;
+
+    @Resource
+    private IdBloomFilterManager idBloomFilterManager;
+
+    @Resource
+    private NamedParameterJdbcTemplate namedParameterJdbcTemplate;
+
+    @Test
+    void joinContention() throws Exception {
+        QueryWrapper<User> userQueryWrapper = new QueryWrapper<>();
+        userQueryWrapper.select("id").last("limit " + (USER_NUM + 1));
+        List<User> userList = userService.list(userQueryWrapper);
+        assertTrue(userList.size() > USER_NUM, "需要库里有足够的用户数据");
+        User creator = userList.get(USER_NUM);
+        List<Long> teamIds = new ArrayList<>();
+        try {
+            // 每个用户加入不同的队伍
+            List<Long> spreadTeamIds = createTeams(creator.getId(), USER_NUM);
+            teamIds.addAll(spreadTeamIds);
+            List<long[]> spreadJoins = new ArrayList<>();
+            for (int i = 0; i < USER_NUM; i++) {
+                spreadJoins.add(new long[]{userList.get(i).getId(), spreadTeamIds.get(i)});
+            }
+            runJoins("spread", spreadJoins);
+
+            // 所有用户同时加入同一个队伍
+            List<Long> hotTeamIds = createTeams(creator.getId(), 1);
+            teamIds.addAll(hotTeamIds);
+            List<long[]> hotJoins = new ArrayList<>();
+            for (int i = 0; i < USER_NUM; i++) {
+                hotJoins.add(new long[]{userList.get(i).getId(), hotTeamIds.get(0)});
+            }
+            runJoins("hot", hotJoins);
+
+            for (Long teamId : teamIds) {
+                Team team = teamService.getById(teamId);
+                QueryWrapper<UserTeam> userTeamQueryWrapper = new QueryWrapper<>();
+                userTeamQueryWrapper.eq("teamId", teamId);
+                long joinedNum = userTeamService.count(userTeamQueryWrapper);
+                assertTrue(team.getMemberCount() <= MAX_NUM);
+                assertEquals(joinedNum, (long) team.getMemberCount());
+            }
+        } finally {
+            // 两张表都是逻辑删除，用 SQL 物理删除，不在库里留下测试数据
+            if (!teamIds.isEmpty()) {
+                Map<String, Object> params = Collections.singletonMap("teamIds", teamIds);
+                namedParameterJdbcTemplate.update("delete from user_team where teamId in (:teamIds)", params);
+                namedParameterJdbcTemplate.update("delete from team where id in (:teamIds)", params);
+            }
+        }
+    }
+
+    private List<Long> createTeams(long creatorId, int teamNum) {
+        List<Long> teamIds = new ArrayList<>(teamNum);
+        Date expireTime = new Date(System.currentTimeMillis() + TimeUnit.DAYS.toMillis(1));
+        for (int i = 0; i < teamNum; i++) {
+            Team team = new Team();
+            team.setName("joinBenchmark");
+            team.setMaxNum(MAX_NUM);
+            team.setMemberCount(0);
+            team.setExpireTime(expireTime);
+            team.setUserId(creatorId);
+            team.setStatus(0);
+            teamService.save(team);
+            idBloomFilterManager.addTeam(team.getId());
+            teamIds.add(team.getId());
+        }
+        return teamIds;
+    }
+
+    /**
+     * 用 THREAD_NUM 个线程同时发出所有加入请求，打印吞吐量和失败原因
+     * @param name
+     * @param joins 每个元素是 {userId, teamId}
+     */
+    private void runJoins(String name, List<long[]> joins) throws Exception {
+        ExecutorService executorService = Executors.newFixedThreadPool(THREAD_NUM);
+        CountDownLatch startLatch = new CountDownLatch(1);
+        AtomicInteger successNum = new AtomicInteger();
+        Map<String, AtomicInteger> failureMap = new ConcurrentHashMap<>();
+        List<Future<?>> futures = new ArrayList<>(joins.size());
+        for (long[] join : joins) {
+            futures.add(executorService.submit(() -> {
+                startLatch.await();
+                User loginUser = new User();
+                loginUser.setId(join[0]);
+                TeamJoinRequest teamJoinRequest = new TeamJoinRequest();
+                teamJoinRequest.setTeamId(join[1]);
+                try {
+                    teamService.joinTeam(teamJoinRequest, loginUser);
+                    successNum.incrementAndGet();
+                } catch (BusinessException e) {
+                    failureMap.computeIfAbsent(e.getMessage(), k -> new AtomicInteger()).incrementAndGet();
+                }
+                return null;
+            }));
+        }
+        long start = System.nanoTime();
+        startLatch.countDown();
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        long elapsedMillis = Math.max(1, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        executorService.shutdown();
+        System.out.printf("%s: requests=%d, success=%d, time=%dms, throughput=%.1f req/s, failures=%s%n",
+                name, joins.size(), successNum.get(), elapsedMillis, joins.size() * 1000.0 / elapsedMillis, failureMap);
+    }
+}
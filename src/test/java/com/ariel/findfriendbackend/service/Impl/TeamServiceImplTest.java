@@ -0,0 +1,148 @@
+package com.ariel.findfriendbackend.service.Impl;
+
+import com.ariel.findfriendbackend.dto.TeamQuery;
+import com.ariel.findfriendbackend.model.domain.Team;
+import com.ariel.findfriendbackend.model.domain.User;
+import com.ariel.findfriendbackend.model.domain.UserTeam;
+import com.ariel.findfriendbackend.model.vo.TeamUserVo;
+import com.ariel.findfriendbackend.service.TeamService;
+import com.ariel.findfriendbackend.service.UserService;
+import com.ariel.findfriendbackend.service.UserTeamService;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import org.apache.ibatis.executor.statement.StatementHandler;
+import org.apache.ibatis.plugin.Interceptor;
+import org.apache.ibatis.plugin.Intercepts;
+import org.apache.ibatis.plugin.Invocation;
+import org.apache.ibatis.plugin.Signature;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.annotation.Resource;
+import java.sql.Connection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 队伍列表的 SQL 条数不随队伍数增长，已加入人数和是否已加入填得正确
+ */
+@SpringBootTest
+@Transactional
+class TeamServiceImplTest {
+
+    @Resource
+    private TeamService teamService;
+
+    @Resource
+    private UserService userService;
+
+    @Resource
+    private UserTeamService userTeamService;
+
+    @Resource
+    private StatementCounter statementCounter;
+
+    @Test
+    public void listTeamsStatementCountIsConstant() {
+        QueryWrapper<User> userQueryWrapper = new QueryWrapper<>();
+        userQueryWrapper.select("id").last("limit 20");
+        List<User> userList = userService.list(userQueryWrapper);
+        assertFalse(userList.isEmpty(), "需要库里有用户数据");
+
+        int fewCount = countListStatements(userList, 2);
+        int manyCount = countListStatements(userList, 40);
+        assertEquals(fewCount, manyCount);
+    }
+
+    /**
+     * 插入 teamNum 个队伍（创建人轮流取 userList 里的用户，已加入人数各不相同），登录用户加入其中第一个，
+     * 统计列表查询执行的 SQL 条数，并检查已加入人数和是否已加入
+     */
+    private int countListStatements(List<User> userList, int teamNum) {
+        String name = "qc" + UUID.randomUUID().toString().substring(0, 8);
+        Date expireTime = new Date(System.currentTimeMillis() + TimeUnit.DAYS.toMillis(1));
+        User loginUser = userList.get(0);
+        Map<Long, Integer> memberCountMap = new HashMap<>();
+        Long joinedTeamId = null;
+        for (int i = 0; i < teamNum; i++) {
+            Team team = new Team();
+            team.setName(name);
+            team.setDescription("statement count");
+            team.setMaxNum(5);
+            team.setMemberCount(i % 4 + 1);
+            team.setExpireTime(expireTime);
+            team.setUserId(userList.get(i % userList.size()).getId());
+            team.setStatus(0);
+            teamService.save(team);
+            memberCountMap.put(team.getId(), team.getMemberCount());
+            if (joinedTeamId == null) {
+                joinedTeamId = team.getId();
+            }
+        }
+        UserTeam userTeam = new UserTeam();
+        userTeam.setUserId(loginUser.getId());
+        userTeam.setTeamId(joinedTeamId);
+        userTeam.setJoinTime(new Date());
+        userTeamService.save(userTeam);
+
+        TeamQuery teamQuery = new TeamQuery();
+        teamQuery.setName(name);
+        statementCounter.start();
+        List<TeamUserVo> teamList = teamService.listTeams(teamQuery, false, loginUser);
+        int count = statementCounter.stop();
+        assertEquals(teamNum, teamList.size());
+        for (TeamUserVo teamUserVo : teamList) {
+            assertNotNull(teamUserVo.getCreateUser());
+            assertEquals(memberCountMap.get(teamUserVo.getId()), teamUserVo.getHasJoinNum());
+            assertEquals(teamUserVo.getId().equals(joinedTeamId), teamUserVo.isHasJoin());
+        }
+        return count;
+    }
+
+    @TestConfiguration
+    static class StatementCounterConfig {
+
+        @Bean
+        public StatementCounter statementCounter() {
+            return new StatementCounter();
+        }
+    }
+
+    /**
+     * 统计当前线程准备执行的 SQL 条数，后台定时任务的查询不算
+     */
+    @Intercepts({@Signature(type = StatementHandler.class, method = "prepare", args = {Connection.class, Integer.class})})
+    static class StatementCounter implements Interceptor {
+
+        private final AtomicInteger count = new AtomicInteger();
+
+        private volatile Thread countingThread;
+
+        void start() {
+            count.set(0);
+            countingThread = Thread.currentThread();
+        }
+
+        int stop() {
+            countingThread = null;
+            return count.get();
+        }
+
+        @Override
+        public Object intercept(Invocation invocation) throws Throwable {
+            if (Thread.currentThread() == countingThread) {
+                count.incrementAndGet();
+            }
+            return invocation.proceed();
+        }
+    }
+}
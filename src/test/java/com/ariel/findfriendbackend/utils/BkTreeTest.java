@@ -0,0 +1,53 @@
+package com.ariel.findfriendbackend.utils;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+class BkTreeTest {
+
+    @Test
+    void distance() {
+        Assertions.assertEquals(0, BkTree.distance("java", "java", Integer.MAX_VALUE));
+        Assertions.assertEquals(1, BkTree.distance("jave", "java", Integer.MAX_VALUE));
+        Assertions.assertEquals(2, BkTree.distance("pyhton", "python", Integer.MAX_VALUE));
+        Assertions.assertEquals(3, BkTree.distance("", "c++", Integer.MAX_VALUE));
+        Assertions.assertEquals(2, BkTree.distance("abcdef", "uvwxyz", 1));
+    }
+
+    /**
+     * 剪枝后的结果要和逐个计算编辑距离一致
+     */
+    @Test
+    void searchMatchesBruteForce() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        List<String> words = new ArrayList<>();
+        BkTree bkTree = new BkTree();
+        for (int i = 0; i < 2000; i++) {
+            char[] chars = new char[random.nextInt(1, 8)];
+            for (int j = 0; j < chars.length; j++) {
+                chars[j] = (char) ('a' + random.nextInt(6));
+            }
+            words.add(new String(chars));
+            bkTree.add(words.get(i), i);
+        }
+        for (int round = 0; round < 50; round++) {
+            String query = words.get(random.nextInt(words.size())) + (char) ('a' + random.nextInt(6));
+            int maxDistance = random.nextInt(3);
+            int[] expected = new int[words.size()];
+            int count = 0;
+            for (int i = 0; i < words.size(); i++) {
+                if (BkTree.distance(query, words.get(i), Integer.MAX_VALUE) <= maxDistance) {
+                    expected[count++] = i;
+                }
+            }
+            int[] actual = bkTree.search(query, maxDistance);
+            Arrays.sort(actual);
+            Assertions.assertArrayEquals(Arrays.copyOf(expected, count), actual);
+        }
+    }
+}
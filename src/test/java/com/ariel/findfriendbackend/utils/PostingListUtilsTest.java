@@ -0,0 +1,91 @@
+package com.ariel.findfriendbackend.utils;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.ThreadLocalRandom;
+
+class PostingListUtilsTest {
+
+    @Test
+    void intersect() {
+        long[] a = {1, 3, 5, 7, 9};
+        long[] b = {2, 3, 4, 7, 10};
+        Assertions.assertArrayEquals(new long[]{3, 7}, PostingListUtils.intersect(a, b));
+        Assertions.assertArrayEquals(new long[0], PostingListUtils.intersect(a, new long[0]));
+    }
+
+    /**
+     * 长度相差很大时走二分跳跃，结果要和双指针一致
+     */
+    @Test
+    void intersectGallop() {
+        TreeSet<Long> big = new TreeSet<>();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        while (big.size() < 10000) {
+            big.add(random.nextLong(100000));
+        }
+        long[] bigList = big.stream().mapToLong(Long::longValue).toArray();
+        long[] smallList = {bigList[0], 5L * 100000, bigList[5000], bigList[9999]};
+        Arrays.sort(smallList);
+        Assertions.assertArrayEquals(new long[]{bigList[0], bigList[5000], bigList[9999]},
+                PostingListUtils.intersect(smallList, bigList));
+    }
+
+    /**
+     * 分页求交集按页拼起来要和一次性求交集结果一致
+     */
+    @Test
+    void intersectAfter() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        List<long[]> lists = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            TreeSet<Long> set = new TreeSet<>();
+            while (set.size() < 2000 * (i + 1)) {
+                set.add(random.nextLong(1, 10000));
+            }
+            lists.add(set.stream().mapToLong(Long::longValue).toArray());
+        }
+        long[] expected = PostingListUtils.intersect(PostingListUtils.intersect(lists.get(0), lists.get(1)), lists.get(2));
+        List<Long> paged = new ArrayList<>();
+        long lastId = 0;
+        while (true) {
+            long[] page = PostingListUtils.intersectAfter(lists, lastId, 7);
+            for (long id : page) {
+                paged.add(id);
+            }
+            if (page.length < 7) {
+                break;
+            }
+            lastId = page[page.length - 1];
+        }
+        Assertions.assertArrayEquals(expected, paged.stream().mapToLong(Long::longValue).toArray());
+        Assertions.assertArrayEquals(new long[]{3, 5}, PostingListUtils.intersectAfter(
+                Collections.singletonList(new long[]{1, 3, 5, 7}), 2, 2));
+    }
+
+    @Test
+    void union() {
+        long[] a = {1, 3, 5};
+        long[] b = {2, 3, 6};
+        Assertions.assertArrayEquals(new long[]{1, 2, 3, 5, 6}, PostingListUtils.union(a, b));
+    }
+
+    @Test
+    void insertAndRemove() {
+        long[] list = PostingListUtils.EMPTY;
+        list = PostingListUtils.insert(list, 5);
+        list = PostingListUtils.insert(list, 1);
+        list = PostingListUtils.insert(list, 3);
+        list = PostingListUtils.insert(list, 3);
+        Assertions.assertArrayEquals(new long[]{1, 3, 5}, list);
+        list = PostingListUtils.remove(list, 3);
+        list = PostingListUtils.remove(list, 4);
+        Assertions.assertArrayEquals(new long[]{1, 5}, list);
+    }
+}
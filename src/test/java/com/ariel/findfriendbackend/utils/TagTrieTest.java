@@ -0,0 +1,27 @@
+package com.ariel.findfriendbackend.utils;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+class TagTrieTest {
+
+    private static final String[] KEYS = {"java", "javascript", "jvm", "python", "c++", "c"};
+
+    private static final int[] IDS = {0, 1, 2, 3, 4, 5};
+
+    private static final int[] SCORES = {30, 50, 10, 40, 5, 20};
+
+    /**
+     * 补全结果按热度降序，最多 topK 个
+     */
+    @Test
+    void search() {
+        TagTrie tagTrie = TagTrie.build(KEYS, IDS, SCORES, 2);
+        Assertions.assertArrayEquals(new int[]{1, 0}, tagTrie.search("j"));
+        Assertions.assertArrayEquals(new int[]{1, 0}, tagTrie.search("java"));
+        Assertions.assertArrayEquals(new int[]{1}, tagTrie.search("javas"));
+        Assertions.assertArrayEquals(new int[]{5, 4}, tagTrie.search("c"));
+        Assertions.assertArrayEquals(new int[0], tagTrie.search("go"));
+        Assertions.assertArrayEquals(new int[0], tagTrie.search("javascripts"));
+    }
+}
@@ -0,0 +1,22 @@
+package com.ariel.findfriendbackend.utils;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+class TopNHeapTest {
+
+    /**
+     * 只保留分数最高的 N 个，分数相同时 id 小的优先，按分数降序取出
+     */
+    @Test
+    void pollAllDescending() {
+        TopNHeap topNHeap = new TopNHeap(3);
+        double[] scores = {1, 3, 2, 3, 0.5, 2};
+        for (int i = 0; i < scores.length; i++) {
+            topNHeap.offer(scores[i], i + 1);
+        }
+        Assertions.assertEquals(2, topNHeap.minScore());
+        Assertions.assertArrayEquals(new long[]{2, 4, 3}, topNHeap.pollAllDescending());
+        Assertions.assertEquals(0, topNHeap.size());
+    }
+}